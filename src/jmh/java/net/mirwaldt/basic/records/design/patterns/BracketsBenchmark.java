@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Bracket insertion of every variant which inserts Brackets records.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BracketsBenchmark {
+    @Param({"2", "4", "6"})
+    public int depth;
+
+    @Param({"2", "4"})
+    public int width;
+
+    private RecordDesignPattern_04_BracketsForString.Expression expression04;
+    private RecordDesignPattern_05_Hierarchy.Expression expression05;
+    private RecordDesignPattern_06_ParentParameter.Expression expression06;
+    private RecordDesignPattern_07_Enum.Expression expression07;
+    private RecordDesignPattern_09_VisitorPattern.Expression expression09;
+    private RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> expression10;
+
+    @Setup
+    public void setUp() {
+        expression04 = ExpressionTrees.tree04(depth, width);
+        expression05 = ExpressionTrees.tree05(depth, width);
+        expression06 = ExpressionTrees.tree06(depth, width);
+        expression07 = ExpressionTrees.tree07(depth, width);
+        expression09 = ExpressionTrees.tree09(depth, width);
+        expression10 = ExpressionTrees.tree10(depth, width);
+    }
+
+    @Benchmark
+    public Object withBrackets04() {
+        return RecordDesignPattern_04_BracketsForString.withBrackets(expression04);
+    }
+
+    @Benchmark
+    public Object withBrackets05() {
+        return RecordDesignPattern_05_Hierarchy.withBrackets(expression05);
+    }
+
+    @Benchmark
+    public Object withBrackets06() {
+        return RecordDesignPattern_06_ParentParameter.withBrackets(expression06, null);
+    }
+
+    @Benchmark
+    public Object withBrackets07() {
+        return RecordDesignPattern_07_Enum.withBrackets(expression07, null);
+    }
+
+    @Benchmark
+    public Object withBrackets09() {
+        return expression09.accept(new RecordDesignPattern_09_VisitorPattern.Bracketeer());
+    }
+
+    @Benchmark
+    public Object withBrackets10() {
+        return RecordDesignPattern_10_ListsAndGenerics.withBrackets(expression10, null);
+    }
+}
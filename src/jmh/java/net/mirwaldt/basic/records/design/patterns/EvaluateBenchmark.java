@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Evaluation of every variant which can evaluate. All variables get the same values in every variant.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluateBenchmark {
+    @Param({"2", "4", "6"})
+    public int depth;
+
+    @Param({"2", "4"})
+    public int width;
+
+    private RecordDesignPattern_08_Evaluate.Expression expression08;
+    private Map<RecordDesignPattern_08_Evaluate.Variable, RecordDesignPattern_08_Evaluate.Value> values08;
+    private RecordDesignPattern_09_VisitorPattern.Expression expression09;
+    private RecordDesignPattern_09_VisitorPattern.Evaluator evaluator09;
+    private RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> expression10;
+    private Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+            RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> values10;
+
+    @Setup
+    public void setUp() {
+        expression08 = ExpressionTrees.tree08(depth, width);
+        expression09 = ExpressionTrees.tree09(depth, width);
+        expression10 = ExpressionTrees.tree10(depth, width);
+
+        values08 = new HashMap<>();
+        Map<RecordDesignPattern_09_VisitorPattern.Variable, RecordDesignPattern_09_VisitorPattern.Value> values09 =
+                new HashMap<>();
+        values10 = new HashMap<>();
+        for (int i = 0; i < ExpressionTrees.VARIABLES; i++) {
+            String name = "V" + i;
+            boolean value = ExpressionTrees.valueOf(name);
+            values08.put(new RecordDesignPattern_08_Evaluate.Variable(name), value
+                    ? RecordDesignPattern_08_Evaluate.Value.TRUE
+                    : RecordDesignPattern_08_Evaluate.Value.FALSE);
+            values09.put(new RecordDesignPattern_09_VisitorPattern.Variable(name), value
+                    ? RecordDesignPattern_09_VisitorPattern.Value.TRUE
+                    : RecordDesignPattern_09_VisitorPattern.Value.FALSE);
+            values10.put(new RecordDesignPattern_10_ListsAndGenerics.Variable<>(name),
+                    value ? BoolValue.TRUE : BoolValue.FALSE);
+        }
+        evaluator09 = new RecordDesignPattern_09_VisitorPattern.Evaluator(values09);
+    }
+
+    @Benchmark
+    public boolean evaluate08() {
+        return RecordDesignPattern_08_Evaluate.evaluate(expression08, values08);
+    }
+
+    @Benchmark
+    public boolean evaluate09() {
+        return expression09.accept(evaluator09);
+    }
+
+    @Benchmark
+    public Object evaluate10() {
+        return RecordDesignPattern_10_ListsAndGenerics.evaluate(expression10, values10);
+    }
+}
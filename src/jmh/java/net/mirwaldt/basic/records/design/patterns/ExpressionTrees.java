@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/*
+ * Generates the same tree for every variant: depth levels of alternating And and Or with width operands each
+ * so Or operands of And need brackets, and some negated operands and leaves.
+ * The binary variants get the operands of a level as a left-deep chain, RecordDesignPattern_10 gets them as one n-ary node.
+ * Every tree is generated with the same seed so all variants see exactly the same shape and variables.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+final class ExpressionTrees {
+    static final int VARIABLES = 16;
+
+    private ExpressionTrees() {
+    }
+
+    record Factory<E>(Function<String, E> variable, UnaryOperator<E> not,
+                      Function<List<E>, E> and, Function<List<E>, E> or) {
+        static <E> Factory<E> binary(Function<String, E> variable, UnaryOperator<E> not,
+                                     BinaryOperator<E> and, BinaryOperator<E> or) {
+            return new Factory<>(variable, not,
+                    operands -> operands.stream().reduce(and).orElseThrow(),
+                    operands -> operands.stream().reduce(or).orElseThrow());
+        }
+    }
+
+    static <E> E generate(Factory<E> factory, int depth, int width) {
+        return generate(factory, depth, width, new Random(42));
+    }
+
+    private static <E> E generate(Factory<E> factory, int depth, int width, Random random) {
+        if (depth == 0) {
+            E variable = factory.variable().apply("V" + random.nextInt(VARIABLES));
+            return (random.nextInt(4) == 0) ? factory.not().apply(variable) : variable;
+        }
+        List<E> operands = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            operands.add(generate(factory, depth - 1, width, random));
+        }
+        E expression = (depth % 2 == 0) ? factory.and().apply(operands) : factory.or().apply(operands);
+        return (random.nextInt(8) == 0) ? factory.not().apply(expression) : expression;
+    }
+
+    static boolean valueOf(String variable) {
+        return Integer.parseInt(variable.substring(1)) % 3 != 0;
+    }
+
+    static RecordDesignPattern_01_ToString_Flawed_WithoutPatternMatching.Expression tree01(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_01_ToString_Flawed_WithoutPatternMatching.Variable::new,
+                RecordDesignPattern_01_ToString_Flawed_WithoutPatternMatching.Not::new,
+                RecordDesignPattern_01_ToString_Flawed_WithoutPatternMatching.And::new,
+                RecordDesignPattern_01_ToString_Flawed_WithoutPatternMatching.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_02_ToString_Corrected_WithoutPatternMatching.Expression tree02(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_02_ToString_Corrected_WithoutPatternMatching.Variable::new,
+                RecordDesignPattern_02_ToString_Corrected_WithoutPatternMatching.Not::new,
+                RecordDesignPattern_02_ToString_Corrected_WithoutPatternMatching.And::new,
+                RecordDesignPattern_02_ToString_Corrected_WithoutPatternMatching.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_04_BracketsForString.Expression tree04(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_04_BracketsForString.Variable::new,
+                RecordDesignPattern_04_BracketsForString.Not::new,
+                RecordDesignPattern_04_BracketsForString.And::new,
+                RecordDesignPattern_04_BracketsForString.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_05_Hierarchy.Expression tree05(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_05_Hierarchy.Variable::new,
+                RecordDesignPattern_05_Hierarchy.Not::new,
+                RecordDesignPattern_05_Hierarchy.And::new,
+                RecordDesignPattern_05_Hierarchy.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_06_ParentParameter.Expression tree06(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_06_ParentParameter.Variable::new,
+                RecordDesignPattern_06_ParentParameter.Not::new,
+                RecordDesignPattern_06_ParentParameter.And::new,
+                RecordDesignPattern_06_ParentParameter.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_07_Enum.Expression tree07(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_07_Enum.Variable::new,
+                RecordDesignPattern_07_Enum.Not::new,
+                RecordDesignPattern_07_Enum.And::new,
+                RecordDesignPattern_07_Enum.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_08_Evaluate.Expression tree08(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_08_Evaluate.Variable::new,
+                RecordDesignPattern_08_Evaluate.Not::new,
+                RecordDesignPattern_08_Evaluate.And::new,
+                RecordDesignPattern_08_Evaluate.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_09_VisitorPattern.Expression tree09(int depth, int width) {
+        return generate(Factory.binary(RecordDesignPattern_09_VisitorPattern.Variable::new,
+                RecordDesignPattern_09_VisitorPattern.Not::new,
+                RecordDesignPattern_09_VisitorPattern.And::new,
+                RecordDesignPattern_09_VisitorPattern.Or::new), depth, width);
+    }
+
+    static RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> tree10(int depth, int width) {
+        return generate(new Factory<RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>>(
+                RecordDesignPattern_10_ListsAndGenerics.Variable::new,
+                RecordDesignPattern_10_ListsAndGenerics.Not::new,
+                operands -> new RecordDesignPattern_10_ListsAndGenerics.And<>(
+                        operands.get(0), operands.get(1), operands.subList(2, operands.size())),
+                operands -> new RecordDesignPattern_10_ListsAndGenerics.Or<>(
+                        operands.get(0), operands.get(1), operands.subList(2, operands.size()))), depth, width);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rendering of every variant. The pattern matching variants and the visitor render trees which already have brackets
+ * so only the rendering is measured, the toString() overrides of _01 and _02 have to decide about brackets themselves.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    @Param({"2", "4", "6"})
+    public int depth;
+
+    @Param({"2", "4"})
+    public int width;
+
+    private RecordDesignPattern_01_ToString_Flawed_WithoutPatternMatching.Expression expression01;
+    private RecordDesignPattern_02_ToString_Corrected_WithoutPatternMatching.Expression expression02;
+    private RecordDesignPattern_04_BracketsForString.Expression expression04;
+    private RecordDesignPattern_05_Hierarchy.Expression expression05;
+    private RecordDesignPattern_06_ParentParameter.Expression expression06;
+    private RecordDesignPattern_07_Enum.Expression expression07;
+    private RecordDesignPattern_09_VisitorPattern.Expression expression09;
+    private RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> expression10;
+
+    @Setup
+    public void setUp() {
+        expression01 = ExpressionTrees.tree01(depth, width);
+        expression02 = ExpressionTrees.tree02(depth, width);
+        expression04 = RecordDesignPattern_04_BracketsForString.withBrackets(ExpressionTrees.tree04(depth, width));
+        expression05 = RecordDesignPattern_05_Hierarchy.withBrackets(ExpressionTrees.tree05(depth, width));
+        expression06 = RecordDesignPattern_06_ParentParameter.withBrackets(ExpressionTrees.tree06(depth, width), null);
+        expression07 = RecordDesignPattern_07_Enum.withBrackets(ExpressionTrees.tree07(depth, width), null);
+        expression09 = ExpressionTrees.tree09(depth, width)
+                .accept(new RecordDesignPattern_09_VisitorPattern.Bracketeer());
+        expression10 = RecordDesignPattern_10_ListsAndGenerics.withBrackets(ExpressionTrees.tree10(depth, width), null);
+    }
+
+    @Benchmark
+    public String toString01() {
+        return expression01.toString();
+    }
+
+    @Benchmark
+    public String toString02() {
+        return expression02.toString();
+    }
+
+    @Benchmark
+    public String toString04() {
+        return RecordDesignPattern_04_BracketsForString.toString(expression04);
+    }
+
+    @Benchmark
+    public String toString05() {
+        return RecordDesignPattern_05_Hierarchy.toString(expression05);
+    }
+
+    @Benchmark
+    public String toString06() {
+        return RecordDesignPattern_06_ParentParameter.toString(expression06);
+    }
+
+    @Benchmark
+    public String toString07() {
+        return RecordDesignPattern_07_Enum.toString(expression07);
+    }
+
+    @Benchmark
+    public String toString09() {
+        return expression09.accept(new RecordDesignPattern_09_VisitorPattern.Stringifier());
+    }
+
+    @Benchmark
+    public String toString10() {
+        return RecordDesignPattern_10_ListsAndGenerics.toString(expression10);
+    }
+}
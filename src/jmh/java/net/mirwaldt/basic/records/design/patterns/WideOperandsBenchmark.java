@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The wide conjunctions of RecordDesignPattern_16_WideOperands: the time per call divided by the width
+ * should stay about the same when the width doubles.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WideOperandsBenchmark {
+    @Param({"10000", "20000", "40000", "80000"})
+    public int width;
+
+    private And<BitValue> and;
+    private Map<Variable<BitValue>, Expression<BitValue>> values;
+
+    @Setup
+    public void setUp() {
+        values = new HashMap<>();
+        and = RecordDesignPattern_16_WideOperands.wideAnd(width, values);
+    }
+
+    @Benchmark
+    public Object withBrackets() {
+        return RecordDesignPattern_10_ListsAndGenerics.withBrackets(and, null);
+    }
+
+    @Benchmark
+    public String render() {
+        return RecordDesignPattern_10_ListsAndGenerics.toString(and);
+    }
+
+    @Benchmark
+    public Object evaluate() {
+        return RecordDesignPattern_10_ListsAndGenerics.evaluate(and, values);
+    }
+}
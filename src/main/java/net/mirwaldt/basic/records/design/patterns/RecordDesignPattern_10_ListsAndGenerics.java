@@ -98,7 +98,7 @@ public class RecordDesignPattern_10_ListsAndGenerics {
     }
 
     sealed interface WithManyOperands<V extends Value<V>> extends Expression<V> permits And, Or {
-        boolean isBinary();
+
     }
 
     record And<V extends Value<V>>(Expression<V> first, Expression<V> second,
@@ -111,18 +111,6 @@ public class RecordDesignPattern_10_ListsAndGenerics {
         And(Expression<V> first, Expression<V> second, Expression<V>... tail) {
             this(first, second, List.of(tail));
         }
-
-        public And<V> withoutLast() {
-            return new And<>(first, second, tail.subList(0, tail.size() - 1));
-        }
-
-        public Expression<V> last() {
-            return tail.get(tail.size() - 1);
-        }
-
-        public boolean isBinary() {
-            return tail.isEmpty();
-        }
     }
 
     record Or<V extends Value<V>>(Expression<V> first, Expression<V> second,
@@ -135,18 +123,6 @@ public class RecordDesignPattern_10_ListsAndGenerics {
         Or(Expression<V> first, Expression<V> second, Expression<V>... tail) {
             this(first, second, List.of(tail));
         }
-
-        public Or<V> withoutLast() {
-            return new Or<>(first, second, tail.subList(0, tail.size() - 1));
-        }
-
-        public Expression<V> last() {
-            return tail.get(tail.size() - 1);
-        }
-
-        public boolean isBinary() {
-            return tail.isEmpty();
-        }
     }
 
     public static <V extends Value<V>> Expression<V> withBrackets(Expression<V> child, Expression<V> parent) {
@@ -154,16 +130,25 @@ public class RecordDesignPattern_10_ListsAndGenerics {
             case WithManyOperands<V> many when parent instanceof Not -> new Brackets<V>(withBrackets(many, child));
             case Or<V> or when parent instanceof And -> new Brackets<V>(withBrackets(or, child));
             case Not<V>(var unnegated) -> new Not<V>(withBrackets(unnegated, child));
-            case And<V> and when and.isBinary() ->
-                    new And<>(withBrackets(and.first(), child), withBrackets(and.second(), child));
-            case And<V> and -> withBrackets((new And<>(and.withoutLast(), and.last())), child);
-            case Or<V> or when or.isBinary() ->
-                    new Or<>(withBrackets(or.first(), child), withBrackets(or.second(), child));
-            case Or<V> or -> withBrackets((new Or<>(or.withoutLast(), or.last())), child);
+            case And<V>(var first, var second, var tail) ->
+                    new And<>(withBrackets(first, child), withBrackets(second, child), withBrackets(tail, child));
+            case Or<V>(var first, var second, var tail) ->
+                    new Or<>(withBrackets(first, child), withBrackets(second, child), withBrackets(tail, child));
             default -> child;
         };
     }
 
+    // List.of() returns an immutable list which the compact constructors of And and Or take without copying
+    private static <V extends Value<V>> List<Expression<V>> withBrackets(List<Expression<V>> children,
+                                                                          Expression<V> parent) {
+        @SuppressWarnings("unchecked")
+        Expression<V>[] withBrackets = (Expression<V>[]) new Expression<?>[children.size()];
+        for (int i = 0; i < withBrackets.length; i++) {
+            withBrackets[i] = withBrackets(children.get(i), parent);
+        }
+        return List.of(withBrackets);
+    }
+
     public static <V extends Value<V>> String toString(Expression<V> expression) {
         return switch (expression) {
             case BoolValue boolValue -> boolValue.toString();
@@ -171,25 +156,45 @@ public class RecordDesignPattern_10_ListsAndGenerics {
             case Variable<V>(var name) -> name;
             case Not<V>(var unnegated) -> "!" + toString(unnegated);
             case Brackets<V>(var withoutBrackets) -> "(" + toString(withoutBrackets) + ")";
-            case And<V> and when and.isBinary() -> toString(and.first()) + " && " + toString(and.second());
-            case And<V> and -> toString(new And<>(and.withoutLast(), and.last()));
-            case Or<V> or when or.isBinary() -> toString(or.first()) + " || " + toString(or.second());
-            case Or<V> or -> toString(new Or<>(or.withoutLast(), or.last()));
+            case And<V>(var first, var second, var tail) -> toString(" && ", first, second, tail);
+            case Or<V>(var first, var second, var tail) -> toString(" || ", first, second, tail);
         };
     }
 
+    private static <V extends Value<V>> String toString(String operator, Expression<V> first, Expression<V> second,
+                                                        List<Expression<V>> tail) {
+        StringBuilder result = new StringBuilder(toString(first)).append(operator).append(toString(second));
+        for (Expression<V> operand : tail) {
+            result.append(operator).append(toString(operand));
+        }
+        return result.toString();
+    }
+
     public static <V extends Value<V>> V evaluate(Expression<V> expression, Map<Variable<V>, Expression<V>> values) {
         return switch (expression) {
             case Variable<V> variable -> evaluate(values.get(variable), values);
             case Not<V>(var unnegated) -> evaluate(unnegated, values).negate();
-            case And<V> and when and.isBinary() -> evaluate(and.first(), values).and(evaluate(and.second(), values));
-            case And<V> and -> evaluate(new And<>(and.withoutLast(), and.last()), values);
-            case Or<V> or when or.isBinary() -> evaluate(or.first(), values).or(evaluate(or.second(), values));
-            case Or<V> or -> evaluate(new Or<>(or.withoutLast(), or.last()), values);
+            case And<V>(var first, var second, var tail) -> evaluate(false, first, second, tail, values);
+            case Or<V>(var first, var second, var tail) -> evaluate(true, first, second, tail, values);
             case Expression<V> expr -> (V) expr;
         };
     }
 
+    // stops at the first operand which decides the result: false for And, true for Or
+    private static <V extends Value<V>> V evaluate(boolean isOr, Expression<V> first, Expression<V> second,
+                                                   List<Expression<V>> tail, Map<Variable<V>, Expression<V>> values) {
+        V result = evaluate(first, values);
+        V decisive = isOr ? result.getTrue() : result.getFalse();
+        if (result == decisive) {
+            return result;
+        }
+        result = evaluate(second, values);
+        for (int i = 0; result != decisive && i < tail.size(); i++) {
+            result = evaluate(tail.get(i), values);
+        }
+        return result;
+    }
+
     /*
     Output:
     (A && 1 && !B || !(C && D) || 0) && 1
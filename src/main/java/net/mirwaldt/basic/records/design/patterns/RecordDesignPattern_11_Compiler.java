@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.evaluate;
+
+/*
+ * Compiles an expression once into a hidden class whose only method evaluates the whole formula
+ * over a dense boolean[] with one slot per variable. The generated code has no branches:
+ * Not becomes "xor 1", And becomes "and" and Or becomes "or" so HotSpot can inline it completely.
+ * HotSpot does not JIT-compile methods with more than 8000 bytes of bytecode (see -XX:-DontCompileHugeMethods)
+ * so subexpressions of large formulas are moved into helper methods which stay below that limit.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_11_Compiler {
+    interface SlotPredicate {
+        boolean test(boolean[] slots);
+    }
+
+    record CompiledExpression(List<Variable> variables, SlotPredicate predicate, int methods) {
+        CompiledExpression {
+            variables = List.copyOf(variables);
+        }
+
+        public int slotOf(Variable variable) {
+            return variables.indexOf(variable);
+        }
+
+        public boolean evaluate(boolean[] slots) {
+            return predicate.test(slots);
+        }
+
+        // a missing variable throws like in RecordDesignPattern_08_Evaluate instead of silently being false
+        public boolean evaluate(Map<Variable, Value> values) {
+            boolean[] slots = new boolean[variables.size()];
+            for (int slot = 0; slot < slots.length; slot++) {
+                Variable variable = variables.get(slot);
+                slots[slot] = Objects.requireNonNull(values.get(variable), () -> "No value for " + variable) == TRUE;
+            }
+            return predicate.test(slots);
+        }
+    }
+
+    private static final String SLOT_PREDICATE = SlotPredicate.class.getName().replace('.', '/');
+    private static final String COMPILED_CLASS =
+            RecordDesignPattern_11_Compiler.class.getName().replace('.', '/') + "$Compiled";
+
+    // class file constant pool indices, see writeConstantPool()
+    private static final int THIS_CLASS = 2, OBJECT_CLASS = 4, INTERFACE = 6, INIT_NAME = 7, INIT_DESCRIPTOR = 8,
+            OBJECT_INIT = 10, EVALUATE_NAME = 11, EVALUATE_DESCRIPTOR = 12, CODE = 13, FIRST_HELPER = 14;
+
+    // the largest method HotSpot still compiles, including the final ireturn
+    static final int MAX_METHOD_BYTES = 8000;
+
+    // aload_0, aload_1, invokespecial helper
+    private static final int CALL_BYTES = 5, CALL_STACK = 2;
+
+    record Code(byte[] bytes, int maxStack) {
+
+    }
+
+    public static CompiledExpression compile(Expression expression) {
+        Map<Variable, Integer> slots = new LinkedHashMap<>();
+        collectVariables(expression, slots);
+        if (Short.MAX_VALUE < slots.size()) {
+            throw new IllegalArgumentException("Too many variables: " + slots.size());
+        }
+
+        List<Code> helpers = new ArrayList<>();
+        Code code = emit(expression, slots, helpers);
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClass(classFile(code, helpers), true);
+            SlotPredicate predicate = (SlotPredicate) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+            return new CompiledExpression(new ArrayList<>(slots.keySet()), predicate, 1 + helpers.size());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot define compiled expression", t);
+        }
+    }
+
+    private static void collectVariables(Expression expression, Map<Variable, Integer> slots) {
+        switch (expression) {
+            case Variable variable -> slots.putIfAbsent(variable, slots.size());
+            case Not(var unnegated) -> collectVariables(unnegated, slots);
+            case And(var left, var right) -> {
+                collectVariables(left, slots);
+                collectVariables(right, slots);
+            }
+            case Or(var left, var right) -> {
+                collectVariables(left, slots);
+                collectVariables(right, slots);
+            }
+            case Value value -> {
+            }
+        }
+    }
+
+    // every returned code leaves room for the ireturn within MAX_METHOD_BYTES
+    private static Code emit(Expression expression, Map<Variable, Integer> slots, List<Code> helpers) {
+        return switch (expression) {
+            case Value value -> new Code(new byte[]{(byte) (value == TRUE ? 0x04 : 0x03)}, 1); // iconst_1 : iconst_0
+            case Variable variable -> {
+                int slot = slots.get(variable);
+                // aload_1, sipush slot, baload
+                yield new Code(new byte[]{0x2B, 0x11, (byte) (slot >>> 8), (byte) slot, 0x33}, 2);
+            }
+            case Not(var unnegated) -> {
+                Code operand = emit(unnegated, slots, helpers);
+                if (MAX_METHOD_BYTES < operand.bytes().length + 3) {
+                    operand = outline(operand, helpers);
+                }
+                // iconst_1, ixor
+                yield new Code(concat(operand.bytes(), new byte[]{0x04, (byte) 0x82}), Math.max(operand.maxStack(), 2));
+            }
+            case And(var left, var right) -> combine(emit(left, slots, helpers), emit(right, slots, helpers),
+                    (byte) 0x7E, helpers); // iand
+            case Or(var left, var right) -> combine(emit(left, slots, helpers), emit(right, slots, helpers),
+                    (byte) 0x80, helpers); // ior
+        };
+    }
+
+    private static Code combine(Code left, Code right, byte operator, List<Code> helpers) {
+        if (MAX_METHOD_BYTES < left.bytes().length + right.bytes().length + 2) {
+            if (right.bytes().length <= left.bytes().length) {
+                left = outline(left, helpers);
+            } else {
+                right = outline(right, helpers);
+            }
+        }
+        if (MAX_METHOD_BYTES < left.bytes().length + right.bytes().length + 2) {
+            left = outline(left, helpers);
+            right = outline(right, helpers);
+        }
+        return new Code(concat(concat(left.bytes(), right.bytes()), new byte[]{operator}),
+                Math.max(left.maxStack(), 1 + right.maxStack()));
+    }
+
+    // moves the code into a new helper method and returns the call of it
+    private static Code outline(Code code, List<Code> helpers) {
+        if (code.bytes().length <= CALL_BYTES) {
+            return code;
+        }
+        int methodRef = FIRST_HELPER + 3 * helpers.size() + 2;
+        if (0xFFFF < methodRef) {
+            throw new IllegalArgumentException("Expression too large: more than " + helpers.size() + " helper methods");
+        }
+        helpers.add(code);
+        // aload_0, aload_1, invokespecial
+        return new Code(new byte[]{0x2A, 0x2B, (byte) 0xB7, (byte) (methodRef >>> 8), (byte) methodRef}, CALL_STACK);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private static byte[] withReturn(byte[] code) {
+        return concat(code, new byte[]{(byte) 0xAC}); // ireturn
+    }
+
+    private static byte[] classFile(Code evaluateCode, List<Code> helpers) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(65); // Java 21
+            writeConstantPool(out, helpers.size());
+            out.writeShort(0x1010); // ACC_FINAL | ACC_SYNTHETIC
+            out.writeShort(THIS_CLASS);
+            out.writeShort(OBJECT_CLASS);
+            out.writeShort(1);
+            out.writeShort(INTERFACE);
+            out.writeShort(0); // fields
+
+            out.writeShort(2 + helpers.size()); // methods
+            // <init>: aload_0, invokespecial Object.<init>, return
+            writeMethod(out, 0x0001, INIT_NAME, INIT_DESCRIPTOR, 1, 1,
+                    new byte[]{0x2A, (byte) 0xB7, 0, OBJECT_INIT, (byte) 0xB1});
+            writeMethod(out, 0x0001, EVALUATE_NAME, EVALUATE_DESCRIPTOR,
+                    evaluateCode.maxStack(), 2, withReturn(evaluateCode.bytes()));
+            for (int i = 0; i < helpers.size(); i++) { // private final synthetic
+                writeMethod(out, 0x1012, FIRST_HELPER + 3 * i, EVALUATE_DESCRIPTOR,
+                        helpers.get(i).maxStack(), 2, withReturn(helpers.get(i).bytes()));
+            }
+
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeConstantPool(DataOutputStream out, int helpers) throws IOException {
+        out.writeShort(FIRST_HELPER + 3 * helpers);
+        utf8(out, COMPILED_CLASS);          // 1
+        classRef(out, 1);                   // 2
+        utf8(out, "java/lang/Object");      // 3
+        classRef(out, 3);                   // 4
+        utf8(out, SLOT_PREDICATE);          // 5
+        classRef(out, 5);                   // 6
+        utf8(out, "<init>");                // 7
+        utf8(out, "()V");                   // 8
+        out.writeByte(12);                  // 9: NameAndType <init>()V
+        out.writeShort(INIT_NAME);
+        out.writeShort(INIT_DESCRIPTOR);
+        out.writeByte(10);                  // 10: Methodref Object.<init>()V
+        out.writeShort(OBJECT_CLASS);
+        out.writeShort(9);
+        utf8(out, "test");                  // 11
+        utf8(out, "([Z)Z");                 // 12
+        utf8(out, "Code");                  // 13
+        for (int i = 0; i < helpers; i++) {
+            int name = FIRST_HELPER + 3 * i;
+            utf8(out, "test" + i);          // name
+            out.writeByte(12);              // name + 1: NameAndType testI([Z)Z
+            out.writeShort(name);
+            out.writeShort(EVALUATE_DESCRIPTOR);
+            out.writeByte(10);              // name + 2: Methodref this.testI([Z)Z
+            out.writeShort(THIS_CLASS);
+            out.writeShort(name + 1);
+        }
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(CODE);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    static Expression randomExpression(Random random, List<Variable> variables, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return (random.nextInt(8) == 0)
+                    ? (random.nextBoolean() ? TRUE : FALSE)
+                    : variables.get(random.nextInt(variables.size()));
+        }
+        return switch (random.nextInt(3)) {
+            case 0 -> new Not(randomExpression(random, variables, depth - 1));
+            case 1 -> new And(randomExpression(random, variables, depth - 1),
+                    randomExpression(random, variables, depth - 1));
+            default -> new Or(randomExpression(random, variables, depth - 1),
+                    randomExpression(random, variables, depth - 1));
+        };
+    }
+
+    /*
+    Output (the times vary):
+    false
+    true
+    1000 random expressions compiled, 256000 assignments checked, mismatches: 0
+    large expression: 16 methods, mismatches: 0
+    256 assignments: tree walker: 8614 us, compiled: 857 us, true results: 3200
+     */
+    public static void main(String[] args) {
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        Variable D = new Variable("D");
+
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        Expression expression = new And(new Or(new And(FALSE, new Not(B)), new Not(new And(C, D))), TRUE);
+        CompiledExpression compiled = compile(expression);
+
+        // false
+        System.out.println(compiled.evaluate(Map.of(B, FALSE, C, TRUE, D, TRUE)));
+
+        // true
+        System.out.println(compiled.evaluate(Map.of(B, TRUE, C, FALSE, D, TRUE)));
+
+        List<Variable> variables = List.of(new Variable("A"), B, C, D,
+                new Variable("E"), new Variable("F"), new Variable("G"), new Variable("H"));
+        Random random = new Random(42);
+        int assignments = 0, mismatches = 0;
+        for (int i = 0; i < 1000; i++) {
+            Expression randomExpression = randomExpression(random, variables, 8);
+            CompiledExpression randomCompiled = compile(randomExpression);
+            for (int bits = 0; bits < 256; bits++) {
+                Map<Variable, Value> values = new HashMap<>();
+                for (int v = 0; v < variables.size(); v++) {
+                    values.put(variables.get(v), ((bits >>> v) & 1) == 1 ? TRUE : FALSE);
+                }
+                assignments++;
+                if (evaluate(randomExpression, values) != randomCompiled.evaluate(values)) {
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println("1000 random expressions compiled, " + assignments
+                + " assignments checked, mismatches: " + mismatches);
+
+        // far more than MAX_METHOD_BYTES of bytecode which is split into helper methods
+        List<Expression> operands = new ArrayList<>();
+        for (int i = 0; i < 4096; i++) {
+            operands.add(randomExpression(random, variables, 4));
+        }
+        for (boolean isAnd = true; 1 < operands.size(); isAnd = !isAnd) {
+            List<Expression> parents = new ArrayList<>();
+            for (int i = 0; i < operands.size(); i += 2) {
+                parents.add(isAnd
+                        ? new And(operands.get(i), operands.get(i + 1))
+                        : new Or(operands.get(i), operands.get(i + 1)));
+            }
+            operands = parents;
+        }
+        Expression large = operands.get(0);
+        CompiledExpression largeCompiled = compile(large);
+        List<Map<Variable, Value>> allValues = new ArrayList<>();
+        boolean[][] allSlots = new boolean[256][largeCompiled.variables().size()];
+        for (int bits = 0; bits < 256; bits++) {
+            Map<Variable, Value> values = new HashMap<>();
+            for (int v = 0; v < variables.size(); v++) {
+                values.put(variables.get(v), ((bits >>> v) & 1) == 1 ? TRUE : FALSE);
+            }
+            allValues.add(values);
+            for (int slot = 0; slot < allSlots[bits].length; slot++) {
+                allSlots[bits][slot] = values.get(largeCompiled.variables().get(slot)) == TRUE;
+            }
+        }
+        int largeMismatches = 0;
+        for (int bits = 0; bits < 256; bits++) {
+            if (evaluate(large, allValues.get(bits)) != largeCompiled.evaluate(allSlots[bits])) {
+                largeMismatches++;
+            }
+        }
+        int trueCount = 0;
+        long interpretedNanos = 0, compiledNanos = 0;
+        for (int round = 0; round < 100; round++) { // the last round is measured after the warm-up
+            long start = System.nanoTime();
+            for (Map<Variable, Value> values : allValues) {
+                trueCount += evaluate(large, values) ? 1 : 0;
+            }
+            interpretedNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (boolean[] slots : allSlots) {
+                trueCount += largeCompiled.evaluate(slots) ? 1 : 0;
+            }
+            compiledNanos = System.nanoTime() - start;
+        }
+        System.out.println("large expression: " + largeCompiled.methods() + " methods, mismatches: " + largeMismatches);
+        System.out.println("256 assignments: tree walker: " + interpretedNanos / 1000 + " us, compiled: "
+                + compiledNanos / 1000 + " us, true results: " + trueCount);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Brackets;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedAnd;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedExpression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedNot;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedOr;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedVariable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.VariableSlots;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._0;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._1;
+
+/*
+ * Bit-sliced evaluation: every variable is bound to a long word whose 64 bits are 64 independent assignments,
+ * so one walk of the tree evaluates all of them with ~, & and |.
+ * The variables are resolved into the slots of RecordDesignPattern_13_VariableSlots once
+ * so the words are a long[] indexed by slot.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_12_BitSlicing {
+    public static final int MAX_TRUTH_TABLE_VARIABLES = 30;
+
+    // bit r of PATTERNS[i] is bit i of r for the first six variables
+    private static final long[] PATTERNS = {
+            0xAAAAAAAAAAAAAAAAL, 0xCCCCCCCCCCCCCCCCL, 0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L, 0xFFFF0000FFFF0000L, 0xFFFFFFFF00000000L
+    };
+
+    // resolves the variables into slots once so evaluate() only reads words[slot] and neither hashes nor boxes
+    public static <V extends Value<V>> IndexedExpression index(Expression<V> expression,
+                                                               VariableSlots<Variable<V>> slots) {
+        return switch (expression) {
+            case Variable<V> variable -> new IndexedVariable(slots.slotOf(variable));
+            case Not<V>(var unnegated) -> new IndexedNot(index(unnegated, slots));
+            case Brackets<V>(var withoutBrackets) -> index(withoutBrackets, slots);
+            case And<V>(var first, var second, var tail) -> {
+                IndexedExpression and = new IndexedAnd(index(first, slots), index(second, slots));
+                for (Expression<V> operand : tail) {
+                    and = new IndexedAnd(and, index(operand, slots));
+                }
+                yield and;
+            }
+            case Or<V>(var first, var second, var tail) -> {
+                IndexedExpression or = new IndexedOr(index(first, slots), index(second, slots));
+                for (Expression<V> operand : tail) {
+                    or = new IndexedOr(or, index(operand, slots));
+                }
+                yield or;
+            }
+            case Value<V> value -> new IndexedValue(value == value.getTrue());
+        };
+    }
+
+    public static long evaluate(IndexedExpression expression, long[] words) {
+        return switch (expression) {
+            case IndexedValue(var value) -> value ? -1L : 0L;
+            case IndexedVariable(var slot) -> words[slot];
+            case IndexedNot(var unnegated) -> ~evaluate(unnegated, words);
+            case IndexedAnd(var left, var right) -> evaluate(left, words) & evaluate(right, words);
+            case IndexedOr(var left, var right) -> evaluate(left, words) | evaluate(right, words);
+        };
+    }
+
+    // adapter for words in a map which indexes the expression on every call
+    public static <V extends Value<V>> long evaluate(Expression<V> expression, Map<Variable<V>, Long> words) {
+        VariableSlots<Variable<V>> slots = new VariableSlots<>();
+        IndexedExpression indexed = index(expression, slots);
+        long[] wordsBySlot = new long[slots.size()];
+        for (int slot = 0; slot < wordsBySlot.length; slot++) {
+            wordsBySlot[slot] = words.get(slots.variable(slot));
+        }
+        return evaluate(indexed, wordsBySlot);
+    }
+
+    /*
+     * Returns the truth table as a bitmap: bit r is the result for the assignment
+     * in which variables.get(i) is true if and only if bit i of r is set.
+     */
+    public static <V extends Value<V>> long[] truthTable(Expression<V> expression, List<Variable<V>> variables) {
+        int n = variables.size();
+        if (MAX_TRUTH_TABLE_VARIABLES < n) {
+            throw new IllegalArgumentException("Too many variables for a truth table: " + n);
+        }
+        VariableSlots<Variable<V>> slots = new VariableSlots<>();
+        variables.forEach(slots::slotOf); // variables.get(i) is slot i
+        IndexedExpression indexed = index(expression, slots);
+        if (n < slots.size()) {
+            throw new IllegalArgumentException("Variable not in the list: " + slots.variable(n));
+        }
+        long[] table = new long[(n <= 6) ? 1 : 1 << (n - 6)];
+        long[] words = new long[n];
+        for (int word = 0; word < table.length; word++) {
+            for (int i = 0; i < n; i++) {
+                words[i] = wordOf(i, word);
+            }
+            table[word] = evaluate(indexed, words);
+        }
+        if (n < 6) {
+            table[0] &= (1L << (1 << n)) - 1;
+        }
+        return table;
+    }
+
+    public static long wordOf(int variableIndex, int word) {
+        return (variableIndex < 6)
+                ? PATTERNS[variableIndex]
+                : (((word >>> (variableIndex - 6)) & 1) == 1) ? -1L : 0L;
+    }
+
+    public static boolean row(long[] truthTable, long row) {
+        return ((truthTable[(int) (row >>> 6)] >>> (row & 63)) & 1) == 1;
+    }
+
+    /*
+    Output:
+    DCBA result
+    0000 1
+    0001 1
+    0010 1
+    0011 1
+    0100 1
+    0101 1
+    0110 1
+    0111 1
+    1000 1
+    1001 1
+    1010 1
+    1011 1
+    1100 0
+    1101 1
+    1110 0
+    1111 0
+    matches evaluate: true
+     */
+    public static void main(String[] args) {
+        Variable<BitValue> A = new Variable<>("A");
+        Variable<BitValue> B = new Variable<>("B");
+        Variable<BitValue> C = new Variable<>("C");
+        Variable<BitValue> D = new Variable<>("D");
+        List<Variable<BitValue>> variables = List.of(A, B, C, D);
+
+        // "(A && 1 && !B || !(C && D) || 0) && 1"
+        Expression<BitValue> bitExpression =
+                new And<>(new Or<>(new And<>(A, _1, new Not<>(B)), new Not<>(new And<>(C, D)), _0), _1);
+        long[] truthTable = truthTable(bitExpression, variables);
+
+        System.out.println("DCBA result");
+        boolean matches = true;
+        for (int row = 0; row < 16; row++) {
+            String bits = String.format("%4s", Integer.toBinaryString(row)).replace(' ', '0');
+            System.out.println(bits + " " + (row(truthTable, row) ? 1 : 0));
+
+            Map<Variable<BitValue>, Expression<BitValue>> values = new HashMap<>();
+            for (int i = 0; i < variables.size(); i++) {
+                values.put(variables.get(i), (((row >>> i) & 1) == 1) ? _1 : _0);
+            }
+            BitValue expected = RecordDesignPattern_10_ListsAndGenerics.evaluate(bitExpression, values);
+            matches &= (expected == _1) == row(truthTable, row);
+        }
+        System.out.println("matches evaluate: " + matches);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_09_VisitorPattern.ExpressionVisitor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+
+/*
+ * Variables are interned once into dense int slots. Expressions are resolved against the slots ahead of time
+ * so evaluating them against an Assignment neither hashes variable names nor allocates.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_13_VariableSlots {
+    // not thread-safe: intern all variables before sharing the slots between threads
+    static final class VariableSlots<T> {
+        private final Map<T, Integer> slots = new HashMap<>();
+        private final Map<T, Integer> identitySlots = new IdentityHashMap<>();
+        private final List<T> variables = new ArrayList<>();
+
+        public int slotOf(T variable) {
+            Integer slot = identitySlots.get(variable);
+            if (slot == null) {
+                slot = slots.computeIfAbsent(variable, v -> {
+                    variables.add(v);
+                    return variables.size() - 1;
+                });
+                identitySlots.put(variable, slot);
+            }
+            return slot;
+        }
+
+        public T variable(int slot) {
+            return variables.get(slot);
+        }
+
+        public int size() {
+            return variables.size();
+        }
+
+        public List<T> variables() {
+            return List.copyOf(variables);
+        }
+    }
+
+    sealed interface Assignment permits LongAssignment, BitSetAssignment, ArrayAssignment {
+        boolean get(int slot);
+    }
+
+    record LongAssignment(long bits) implements Assignment {
+        @Override
+        public boolean get(int slot) {
+            return ((bits >>> slot) & 1) == 1;
+        }
+    }
+
+    record BitSetAssignment(BitSet bits) implements Assignment {
+        @Override
+        public boolean get(int slot) {
+            return bits.get(slot);
+        }
+    }
+
+    record ArrayAssignment(boolean[] values) implements Assignment {
+        @Override
+        public boolean get(int slot) {
+            return values[slot];
+        }
+    }
+
+    sealed interface IndexedExpression permits IndexedValue, IndexedVariable, IndexedNot, IndexedAnd, IndexedOr {
+
+    }
+
+    record IndexedValue(boolean value) implements IndexedExpression {
+
+    }
+
+    record IndexedVariable(int slot) implements IndexedExpression {
+
+    }
+
+    record IndexedNot(IndexedExpression unnegated) implements IndexedExpression {
+
+    }
+
+    record IndexedAnd(IndexedExpression left, IndexedExpression right) implements IndexedExpression {
+
+    }
+
+    record IndexedOr(IndexedExpression left, IndexedExpression right) implements IndexedExpression {
+
+    }
+
+    public static IndexedExpression index(Expression expression, VariableSlots<Variable> slots) {
+        return switch (expression) {
+            case Value value -> new IndexedValue(value == TRUE);
+            case Variable variable -> new IndexedVariable(slots.slotOf(variable));
+            case Not(var unnegated) -> new IndexedNot(index(unnegated, slots));
+            case And(var left, var right) -> new IndexedAnd(index(left, slots), index(right, slots));
+            case Or(var left, var right) -> new IndexedOr(index(left, slots), index(right, slots));
+        };
+    }
+
+    public static boolean evaluate(IndexedExpression expression, Assignment assignment) {
+        return switch (expression) {
+            case IndexedValue(var value) -> value;
+            case IndexedVariable(var slot) -> assignment.get(slot);
+            case IndexedNot(var unnegated) -> !evaluate(unnegated, assignment);
+            case IndexedAnd(var left, var right) -> evaluate(left, assignment) && evaluate(right, assignment);
+            case IndexedOr(var left, var right) -> evaluate(left, assignment) || evaluate(right, assignment);
+        };
+    }
+
+    public static <T, V> Assignment assignment(Map<T, ? extends V> values, V trueValue, VariableSlots<T> slots) {
+        BitSet bits = new BitSet(slots.size());
+        for (int slot = 0; slot < slots.size(); slot++) {
+            bits.set(slot, values.get(slots.variable(slot)) == trueValue);
+        }
+        return (slots.size() <= Long.SIZE)
+                ? new LongAssignment(bits.isEmpty() ? 0L : bits.toLongArray()[0])
+                : new BitSetAssignment(bits);
+    }
+
+    // indexing the expression for a single Map would cost more than interpreting the tree directly.
+    // Expressions which are evaluated repeatedly should be indexed once and evaluated against assignments.
+    public static boolean evaluate(Expression expression, Map<Variable, Value> values) {
+        return RecordDesignPattern_08_Evaluate.evaluate(expression, values);
+    }
+
+    // resolves the slots of the variables of a RecordDesignPattern_09_VisitorPattern expression once
+    static class SlotIndexer implements ExpressionVisitor<IndexedExpression> {
+        private final VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> slots;
+
+        public SlotIndexer(VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public IndexedExpression visit(RecordDesignPattern_09_VisitorPattern.Value value) {
+            return new IndexedValue(value == RecordDesignPattern_09_VisitorPattern.Value.TRUE);
+        }
+
+        @Override
+        public IndexedExpression visit(RecordDesignPattern_09_VisitorPattern.Variable variable) {
+            return new IndexedVariable(slots.slotOf(variable));
+        }
+
+        @Override
+        public IndexedExpression visit(RecordDesignPattern_09_VisitorPattern.Not not) {
+            return new IndexedNot(not.unnegated().accept(this));
+        }
+
+        @Override
+        public IndexedExpression visit(RecordDesignPattern_09_VisitorPattern.And and) {
+            return new IndexedAnd(and.left().accept(this), and.right().accept(this));
+        }
+
+        @Override
+        public IndexedExpression visit(RecordDesignPattern_09_VisitorPattern.Or or) {
+            return new IndexedOr(or.left().accept(this), or.right().accept(this));
+        }
+
+        @Override
+        public IndexedExpression visit(RecordDesignPattern_09_VisitorPattern.Brackets brackets) {
+            return brackets.withoutBrackets().accept(this);
+        }
+    }
+
+    // reusable replacement for RecordDesignPattern_09_VisitorPattern.Evaluator which copies no map per assignment.
+    // The slots are resolved by the constructor so evaluate() neither hashes nor changes the slots
+    // and one instance can be shared between threads.
+    static final class SlotEvaluator {
+        private final IndexedExpression indexed;
+
+        public SlotEvaluator(RecordDesignPattern_09_VisitorPattern.Expression expression,
+                             VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> slots) {
+            this.indexed = expression.accept(new SlotIndexer(slots));
+        }
+
+        public boolean evaluate(Assignment assignment) {
+            return RecordDesignPattern_13_VariableSlots.evaluate(indexed, assignment);
+        }
+    }
+
+    /*
+    Output:
+    [Variable[name=B], Variable[name=C], Variable[name=D]]
+    false
+    true
+    true
+    false
+    true
+     */
+    public static void main(String[] args) {
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        Variable D = new Variable("D");
+
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        Expression expression = new And(new Or(new And(FALSE, new Not(B)), new Not(new And(C, D))), TRUE);
+
+        VariableSlots<Variable> slots = new VariableSlots<>();
+        IndexedExpression indexed = index(expression, slots);
+        System.out.println(slots.variables());
+
+        // B=FALSE, C=TRUE, D=TRUE: false
+        System.out.println(evaluate(indexed, new LongAssignment(0b110)));
+        // B=TRUE, C=FALSE, D=TRUE: true
+        System.out.println(evaluate(indexed, new ArrayAssignment(new boolean[]{true, false, true})));
+        // the same via the Map adapter: true
+        System.out.println(evaluate(expression, Map.of(B, TRUE, C, FALSE, D, TRUE)));
+
+        RecordDesignPattern_09_VisitorPattern.Variable b = new RecordDesignPattern_09_VisitorPattern.Variable("B");
+        RecordDesignPattern_09_VisitorPattern.Variable c = new RecordDesignPattern_09_VisitorPattern.Variable("C");
+        RecordDesignPattern_09_VisitorPattern.Variable d = new RecordDesignPattern_09_VisitorPattern.Variable("D");
+        RecordDesignPattern_09_VisitorPattern.Expression visitable = new RecordDesignPattern_09_VisitorPattern.And(
+                new RecordDesignPattern_09_VisitorPattern.Or(
+                        new RecordDesignPattern_09_VisitorPattern.And(
+                                RecordDesignPattern_09_VisitorPattern.Value.FALSE,
+                                new RecordDesignPattern_09_VisitorPattern.Not(b)),
+                        new RecordDesignPattern_09_VisitorPattern.Not(
+                                new RecordDesignPattern_09_VisitorPattern.And(c, d))),
+                RecordDesignPattern_09_VisitorPattern.Value.TRUE);
+
+        VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> visitorSlots = new VariableSlots<>();
+        int slotOfB = visitorSlots.slotOf(b), slotOfC = visitorSlots.slotOf(c), slotOfD = visitorSlots.slotOf(d);
+        SlotEvaluator evaluator = new SlotEvaluator(visitable, visitorSlots);
+
+        BitSet bits = new BitSet();
+        bits.set(slotOfC);
+        bits.set(slotOfD);
+        // B=FALSE, C=TRUE, D=TRUE: false
+        System.out.println(evaluator.evaluate(new BitSetAssignment(bits)));
+        bits.set(slotOfB);
+        bits.clear(slotOfC);
+        // B=TRUE, C=FALSE, D=TRUE: true
+        System.out.println(evaluator.evaluate(new BitSetAssignment(bits)));
+    }
+}
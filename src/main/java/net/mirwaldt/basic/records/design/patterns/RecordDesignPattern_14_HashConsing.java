@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+
+/*
+ * Hash-consing: a factory returns one canonical instance per distinct subtree. Because the children of a node
+ * are canonical already, a node is looked up by the identities of its children in O(1) instead of by a deep
+ * recursive equals/hashCode. Equal canonical subtrees are identical, so == is equality and
+ * System.identityHashCode(), which the JVM caches in the object header, is a valid structural hash.
+ * Use IdentityHashMap for canonical nodes as keys because the records still compute their deep hashCode.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_14_HashConsing {
+    // thread-safe table of canonical nodes keyed by node kind and the identities of the canonical children
+    static final class NodeTable<E> {
+        private record Key(Object kind, Object left, Object right) {
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Key key && key.kind.equals(kind) && key.left == left && key.right == right;
+            }
+
+            @Override
+            public int hashCode() {
+                return (31 * kind.hashCode() + System.identityHashCode(left)) * 31 + System.identityHashCode(right);
+            }
+        }
+
+        private final Map<Key, E> nodes = new ConcurrentHashMap<>();
+
+        public E intern(Object kind, Object left, Object right, Supplier<E> constructor) {
+            return nodes.computeIfAbsent(new Key(kind, left, right), key -> constructor.get());
+        }
+
+        public int size() {
+            return nodes.size();
+        }
+    }
+
+    static final class Factory {
+        private final NodeTable<Expression> table = new NodeTable<>();
+
+        public Variable variable(String name) {
+            return (Variable) table.intern(Variable.class, name.intern(), null, () -> new Variable(name));
+        }
+
+        public Not not(Expression unnegated) {
+            return (Not) table.intern(Not.class, unnegated, null, () -> new Not(unnegated));
+        }
+
+        public And and(Expression left, Expression right) {
+            return (And) table.intern(And.class, left, right, () -> new And(left, right));
+        }
+
+        public Or or(Expression left, Expression right) {
+            return (Or) table.intern(Or.class, left, right, () -> new Or(left, right));
+        }
+
+        public Expression intern(Expression expression) {
+            return intern(expression, new IdentityHashMap<>());
+        }
+
+        // the memo avoids re-interning subtrees which are already shared in the input
+        private Expression intern(Expression expression, Map<Expression, Expression> memo) {
+            Expression canonical = memo.get(expression);
+            if (canonical == null) {
+                canonical = switch (expression) {
+                    case Value value -> value;
+                    case Variable(var name) -> variable(name);
+                    case Not(var unnegated) -> not(intern(unnegated, memo));
+                    case And(var left, var right) -> and(intern(left, memo), intern(right, memo));
+                    case Or(var left, var right) -> or(intern(left, memo), intern(right, memo));
+                };
+                memo.put(expression, canonical);
+            }
+            return canonical;
+        }
+
+        public int size() {
+            return table.size();
+        }
+    }
+
+    static final class VisitorFactory {
+        private final NodeTable<RecordDesignPattern_09_VisitorPattern.Expression> table = new NodeTable<>();
+
+        public RecordDesignPattern_09_VisitorPattern.Variable variable(String name) {
+            return (RecordDesignPattern_09_VisitorPattern.Variable) table.intern(
+                    RecordDesignPattern_09_VisitorPattern.Variable.class, name.intern(), null,
+                    () -> new RecordDesignPattern_09_VisitorPattern.Variable(name));
+        }
+
+        public RecordDesignPattern_09_VisitorPattern.Not not(RecordDesignPattern_09_VisitorPattern.Expression unnegated) {
+            return (RecordDesignPattern_09_VisitorPattern.Not) table.intern(
+                    RecordDesignPattern_09_VisitorPattern.Not.class, unnegated, null,
+                    () -> new RecordDesignPattern_09_VisitorPattern.Not(unnegated));
+        }
+
+        public RecordDesignPattern_09_VisitorPattern.Brackets brackets(
+                RecordDesignPattern_09_VisitorPattern.Expression withoutBrackets) {
+            return (RecordDesignPattern_09_VisitorPattern.Brackets) table.intern(
+                    RecordDesignPattern_09_VisitorPattern.Brackets.class, withoutBrackets, null,
+                    () -> new RecordDesignPattern_09_VisitorPattern.Brackets(withoutBrackets));
+        }
+
+        public RecordDesignPattern_09_VisitorPattern.And and(RecordDesignPattern_09_VisitorPattern.Expression left,
+                                                             RecordDesignPattern_09_VisitorPattern.Expression right) {
+            return (RecordDesignPattern_09_VisitorPattern.And) table.intern(
+                    RecordDesignPattern_09_VisitorPattern.And.class, left, right,
+                    () -> new RecordDesignPattern_09_VisitorPattern.And(left, right));
+        }
+
+        public RecordDesignPattern_09_VisitorPattern.Or or(RecordDesignPattern_09_VisitorPattern.Expression left,
+                                                           RecordDesignPattern_09_VisitorPattern.Expression right) {
+            return (RecordDesignPattern_09_VisitorPattern.Or) table.intern(
+                    RecordDesignPattern_09_VisitorPattern.Or.class, left, right,
+                    () -> new RecordDesignPattern_09_VisitorPattern.Or(left, right));
+        }
+
+        public int size() {
+            return table.size();
+        }
+    }
+
+    /*
+    Output:
+    true
+    true
+    true
+    9 canonical nodes instead of 13 nodes
+     */
+    public static void main(String[] args) {
+        Factory factory = new Factory();
+        Variable B = factory.variable("B");
+        Variable C = factory.variable("C");
+        Variable D = factory.variable("D");
+
+        // "!(C && D)" built twice yields the same instance
+        Not first = factory.not(factory.and(C, D));
+        Not second = factory.not(factory.and(factory.variable("C"), factory.variable("D")));
+        System.out.println(first == second);
+
+        // "(FALSE && !B || !(C && D)) && !(C && D)" built without the factory and interned afterwards
+        Expression expression = new And(new Or(new And(FALSE, new Not(new Variable("B"))),
+                new Not(new And(new Variable("C"), new Variable("D")))),
+                new Not(new And(new Variable("C"), new Variable("D"))));
+        And canonical = (And) factory.intern(expression);
+        System.out.println(canonical.right() == first);
+        System.out.println(factory.not(B) == ((And) ((Or) canonical.left()).left()).right());
+
+        // TRUE and FALSE are enum constants and therefore canonical without the table
+        System.out.println(factory.size() + " canonical nodes instead of 13 nodes");
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+ * Renders in a single pass: the precedence of the parent decides whether brackets are needed,
+ * so no tree of Brackets records is allocated and the text is appended straight into the target.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_15_StreamingRenderer {
+    private static final int NONE = 0, OR = 1, AND = 2, NOT = 3;
+
+    //------------------------------------------ RecordDesignPattern_07_Enum ------------------------------------------
+
+    public static void render(RecordDesignPattern_07_Enum.Expression expression, Appendable out) throws IOException {
+        render(expression, NONE, out);
+    }
+
+    public static String toString(RecordDesignPattern_07_Enum.Expression expression) {
+        StringBuilder out = new StringBuilder();
+        try {
+            render(expression, NONE, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return out.toString();
+    }
+
+    private static void render(RecordDesignPattern_07_Enum.Expression expression, int parent, Appendable out)
+            throws IOException {
+        switch (expression) {
+            case RecordDesignPattern_07_Enum.Value value -> out.append(value.name());
+            case RecordDesignPattern_07_Enum.Variable(var name) -> out.append(name);
+            case RecordDesignPattern_07_Enum.Not(var unnegated) -> {
+                out.append('!');
+                render(unnegated, NOT, out);
+            }
+            case RecordDesignPattern_07_Enum.Brackets(var withoutBrackets) -> {
+                out.append('(');
+                render(withoutBrackets, NONE, out);
+                out.append(')');
+            }
+            case RecordDesignPattern_07_Enum.And(var left, var right) -> {
+                open(AND, parent, out);
+                render(left, AND, out);
+                out.append(" && ");
+                render(right, AND, out);
+                close(AND, parent, out);
+            }
+            case RecordDesignPattern_07_Enum.Or(var left, var right) -> {
+                open(OR, parent, out);
+                render(left, OR, out);
+                out.append(" || ");
+                render(right, OR, out);
+                close(OR, parent, out);
+            }
+        }
+    }
+
+    //------------------------------------- RecordDesignPattern_10_ListsAndGenerics -------------------------------------
+
+    public static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> void render(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression, Appendable out) throws IOException {
+        render(expression, NONE, out);
+    }
+
+    public static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> String toString(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression) {
+        StringBuilder out = new StringBuilder();
+        try {
+            render(expression, NONE, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        return out.toString();
+    }
+
+    private static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> void render(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression, int parent, Appendable out)
+            throws IOException {
+        switch (expression) {
+            case RecordDesignPattern_10_ListsAndGenerics.Variable<V>(var name) -> out.append(name);
+            case RecordDesignPattern_10_ListsAndGenerics.Not<V>(var unnegated) -> {
+                out.append('!');
+                render(unnegated, NOT, out);
+            }
+            case RecordDesignPattern_10_ListsAndGenerics.Brackets<V>(var withoutBrackets) -> {
+                out.append('(');
+                render(withoutBrackets, NONE, out);
+                out.append(')');
+            }
+            case RecordDesignPattern_10_ListsAndGenerics.And<V>(var first, var second, var tail) ->
+                    render(AND, " && ", first, second, tail, parent, out);
+            case RecordDesignPattern_10_ListsAndGenerics.Or<V>(var first, var second, var tail) ->
+                    render(OR, " || ", first, second, tail, parent, out);
+            case RecordDesignPattern_10_ListsAndGenerics.Value<V> value -> out.append(value.toString());
+        }
+    }
+
+    private static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> void render(
+            int precedence, String operator,
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> first,
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> second,
+            List<RecordDesignPattern_10_ListsAndGenerics.Expression<V>> tail,
+            int parent, Appendable out) throws IOException {
+        open(precedence, parent, out);
+        render(first, precedence, out);
+        out.append(operator);
+        render(second, precedence, out);
+        for (RecordDesignPattern_10_ListsAndGenerics.Expression<V> operand : tail) {
+            out.append(operator);
+            render(operand, precedence, out);
+        }
+        close(precedence, parent, out);
+    }
+
+    //------------------------------------- RecordDesignPattern_09_VisitorPattern --------------------------------------
+
+    // replaces Bracketeer + Stringifier by one visitor; IOExceptions are tunneled as UncheckedIOException
+    static class Renderer implements RecordDesignPattern_09_VisitorPattern.ExpressionVisitor<Void> {
+        private final Appendable out;
+        private int parent = NONE;
+
+        public Renderer(Appendable out) {
+            this.out = out;
+        }
+
+        public void render(RecordDesignPattern_09_VisitorPattern.Expression expression) throws IOException {
+            try {
+                visit(expression);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public Void visit(RecordDesignPattern_09_VisitorPattern.Value value) {
+            return append(value.name());
+        }
+
+        @Override
+        public Void visit(RecordDesignPattern_09_VisitorPattern.Variable variable) {
+            return append(variable.name());
+        }
+
+        @Override
+        public Void visit(RecordDesignPattern_09_VisitorPattern.Not not) {
+            append("!");
+            return child(not.unnegated(), NOT);
+        }
+
+        @Override
+        public Void visit(RecordDesignPattern_09_VisitorPattern.And and) {
+            return binary(AND, " && ", and.left(), and.right());
+        }
+
+        @Override
+        public Void visit(RecordDesignPattern_09_VisitorPattern.Or or) {
+            return binary(OR, " || ", or.left(), or.right());
+        }
+
+        @Override
+        public Void visit(RecordDesignPattern_09_VisitorPattern.Brackets brackets) {
+            append("(");
+            child(brackets.withoutBrackets(), NONE);
+            return append(")");
+        }
+
+        private Void binary(int precedence, String operator,
+                            RecordDesignPattern_09_VisitorPattern.Expression left,
+                            RecordDesignPattern_09_VisitorPattern.Expression right) {
+            boolean brackets = precedence < parent;
+            if (brackets) {
+                append("(");
+            }
+            child(left, precedence);
+            append(operator);
+            child(right, precedence);
+            return brackets ? append(")") : null;
+        }
+
+        private Void child(RecordDesignPattern_09_VisitorPattern.Expression child, int precedence) {
+            int grandParent = parent;
+            parent = precedence;
+            child.accept(this);
+            parent = grandParent;
+            return null;
+        }
+
+        private Void append(CharSequence text) {
+            try {
+                out.append(text);
+                return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    //----------------------------------------------------- common -----------------------------------------------------
+
+    private static void open(int precedence, int parent, Appendable out) throws IOException {
+        if (precedence < parent) {
+            out.append('(');
+        }
+    }
+
+    private static void close(int precedence, int parent, Appendable out) throws IOException {
+        if (precedence < parent) {
+            out.append(')');
+        }
+    }
+
+    // writes the text UTF-8 encoded into a ByteBuffer without allocating: ASCII characters are put directly,
+    // all others go through a reused CharBuffer and CharsetEncoder
+    static final class ByteBufferAppendable implements Appendable {
+        private final ByteBuffer buffer;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharBuffer pending = CharBuffer.allocate(2); // a surrogate pair at most
+
+        public ByteBufferAppendable(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c < 0x80 && pending.position() == 0) {
+                buffer.put((byte) c);
+            } else {
+                pending.put(c);
+                encodePending();
+            }
+            return this;
+        }
+
+        // a high surrogate stays pending until its low surrogate is appended
+        private void encodePending() throws IOException {
+            pending.flip();
+            CoderResult result = encoder.encode(pending, buffer, false);
+            pending.compact();
+            if (result.isOverflow()) {
+                throw new BufferOverflowException();
+            } else if (result.isError()) {
+                result.throwException();
+            }
+        }
+    }
+
+    /*
+    Output:
+    (FALSE && !B || !(C && D)) && TRUE
+    true
+    (A && 1 && !B || !(C && D) || 0) && 1
+    true
+    (FALSE && !B || !(C && D)) && TRUE
+    (FALSE && !B || !(C && D)) && TRUE
+    10 bytes, equal: true
+     */
+    public static void main(String[] args) throws IOException {
+        RecordDesignPattern_07_Enum.Variable B = new RecordDesignPattern_07_Enum.Variable("B");
+        RecordDesignPattern_07_Enum.Variable C = new RecordDesignPattern_07_Enum.Variable("C");
+        RecordDesignPattern_07_Enum.Variable D = new RecordDesignPattern_07_Enum.Variable("D");
+        RecordDesignPattern_07_Enum.Expression enumExpression = new RecordDesignPattern_07_Enum.And(
+                new RecordDesignPattern_07_Enum.Or(
+                        new RecordDesignPattern_07_Enum.And(RecordDesignPattern_07_Enum.Value.FALSE,
+                                new RecordDesignPattern_07_Enum.Not(B)),
+                        new RecordDesignPattern_07_Enum.Not(new RecordDesignPattern_07_Enum.And(C, D))),
+                RecordDesignPattern_07_Enum.Value.TRUE);
+        String rendered = toString(enumExpression);
+        System.out.println(rendered);
+        System.out.println(rendered.equals(RecordDesignPattern_07_Enum.toString(
+                RecordDesignPattern_07_Enum.withBrackets(enumExpression, null))));
+
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> a =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("A");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> b =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("B");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> c =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("C");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> d =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("D");
+        RecordDesignPattern_10_ListsAndGenerics.Expression<RecordDesignPattern_10_ListsAndGenerics.BitValue> bitExpression =
+                new RecordDesignPattern_10_ListsAndGenerics.And<>(
+                        new RecordDesignPattern_10_ListsAndGenerics.Or<>(
+                                new RecordDesignPattern_10_ListsAndGenerics.And<>(a,
+                                        RecordDesignPattern_10_ListsAndGenerics.BitValue._1,
+                                        new RecordDesignPattern_10_ListsAndGenerics.Not<>(b)),
+                                new RecordDesignPattern_10_ListsAndGenerics.Not<>(
+                                        new RecordDesignPattern_10_ListsAndGenerics.And<>(c, d)),
+                                RecordDesignPattern_10_ListsAndGenerics.BitValue._0),
+                        RecordDesignPattern_10_ListsAndGenerics.BitValue._1);
+        String renderedBits = toString(bitExpression);
+        System.out.println(renderedBits);
+        System.out.println(renderedBits.equals(RecordDesignPattern_10_ListsAndGenerics.toString(
+                RecordDesignPattern_10_ListsAndGenerics.withBrackets(bitExpression, null))));
+
+        RecordDesignPattern_09_VisitorPattern.Variable vb = new RecordDesignPattern_09_VisitorPattern.Variable("B");
+        RecordDesignPattern_09_VisitorPattern.Variable vc = new RecordDesignPattern_09_VisitorPattern.Variable("C");
+        RecordDesignPattern_09_VisitorPattern.Variable vd = new RecordDesignPattern_09_VisitorPattern.Variable("D");
+        RecordDesignPattern_09_VisitorPattern.Expression visitable = new RecordDesignPattern_09_VisitorPattern.And(
+                new RecordDesignPattern_09_VisitorPattern.Or(
+                        new RecordDesignPattern_09_VisitorPattern.And(
+                                RecordDesignPattern_09_VisitorPattern.Value.FALSE,
+                                new RecordDesignPattern_09_VisitorPattern.Not(vb)),
+                        new RecordDesignPattern_09_VisitorPattern.Not(
+                                new RecordDesignPattern_09_VisitorPattern.And(vc, vd))),
+                RecordDesignPattern_09_VisitorPattern.Value.TRUE);
+        StringBuilder out = new StringBuilder();
+        new Renderer(out).render(visitable);
+        System.out.println(out);
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new Renderer(new ByteBufferAppendable(buffer)).render(visitable);
+        System.out.println(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+
+        // U+00C4 takes two bytes and U+1D400, a surrogate pair, four bytes in UTF-8
+        RecordDesignPattern_09_VisitorPattern.Expression nonAscii = new RecordDesignPattern_09_VisitorPattern.Or(
+                new RecordDesignPattern_09_VisitorPattern.Variable("\u00c4"),
+                new RecordDesignPattern_09_VisitorPattern.Variable("\ud835\udc00"));
+        buffer.clear();
+        new Renderer(new ByteBufferAppendable(buffer)).render(nonAscii);
+        StringBuilder nonAsciiOut = new StringBuilder();
+        new Renderer(nonAsciiOut).render(nonAscii);
+        System.out.println(buffer.position() + " bytes, equal: "
+                + new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).equals(nonAsciiOut.toString()));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._1;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.evaluate;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.withBrackets;
+
+/*
+ * Micro benchmark for wide n-ary conjunctions like generated policies.
+ * withBrackets, toString and evaluate iterate the operands of RecordDesignPattern_10_ListsAndGenerics.And directly
+ * so the time per operand stays roughly constant when the width doubles.
+ * Every operand is true so evaluate cannot short-circuit.
+ * WideOperandsBenchmark measures the same with JMH.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_16_WideOperands {
+    static And<BitValue> wideAnd(int width, Map<Variable<BitValue>, Expression<BitValue>> values) {
+        List<Expression<BitValue>> operands = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            Variable<BitValue> variable = new Variable<>("V" + i);
+            values.put(variable, _1);
+            operands.add(variable);
+        }
+        return new And<>(operands.get(0), operands.get(1), operands.subList(2, width));
+    }
+
+    // every result is written here so the JIT cannot remove the measured work
+    static volatile Object sink;
+
+    // about 10 million operands per measurement so every width runs long enough
+    static long nanosPerOperand(int width, Supplier<?> operation) {
+        int repetitions = Math.max(50, 10_000_000 / width);
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; i++) {
+            sink = operation.get();
+        }
+        return (System.nanoTime() - start) / ((long) repetitions * width);
+    }
+
+    /*
+    Output (the numbers vary from machine to machine but stay about the same for every width):
+    operands  withBrackets ns/operand  toString ns/operand  evaluate ns/operand
+       10000                       9                   25                    7
+       20000                      12                   22                    7
+       40000                       9                   26                   11
+       80000                       8                   16                   11
+     */
+    public static void main(String[] args) {
+        for (int warmup = 0; warmup < 10; warmup++) {
+            Map<Variable<BitValue>, Expression<BitValue>> values = new HashMap<>();
+            And<BitValue> and = wideAnd(10_000, values);
+            nanosPerOperand(10_000, () -> withBrackets(and, null));
+            nanosPerOperand(10_000, () -> RecordDesignPattern_10_ListsAndGenerics.toString(and));
+            nanosPerOperand(10_000, () -> evaluate(and, values));
+        }
+
+        System.out.println("operands  withBrackets ns/operand  toString ns/operand  evaluate ns/operand");
+        for (int width = 10_000; width <= 80_000; width *= 2) {
+            Map<Variable<BitValue>, Expression<BitValue>> values = new HashMap<>();
+            And<BitValue> and = wideAnd(width, values);
+            System.out.printf("%8d  %22d  %19d  %19d%n", width,
+                    nanosPerOperand(width, () -> withBrackets(and, null)),
+                    nanosPerOperand(width, () -> RecordDesignPattern_10_ListsAndGenerics.toString(and)),
+                    nanosPerOperand(width, () -> evaluate(and, values)));
+        }
+    }
+}
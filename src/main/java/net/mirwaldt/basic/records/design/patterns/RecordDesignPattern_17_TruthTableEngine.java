@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedAnd;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedExpression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedNot;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedOr;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedVariable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.VariableSlots;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+
+/*
+ * Splits the assignment space of an expression into ranges of 64-row words for a ForkJoinPool.
+ * Each word is evaluated bit-sliced in one walk of the indexed expression and results are streamed:
+ * as a count, as the rows of the satisfying assignments or as a truth table bitmap.
+ * Row r assigns true to the variable in slot i if and only if bit i of r is set.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_17_TruthTableEngine {
+    public static final int MAX_VARIABLES = 40;
+    private static final long WORDS_PER_TASK = 1 << 10;
+
+    private final ForkJoinPool pool;
+
+    public RecordDesignPattern_17_TruthTableEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public long countModels(IndexedExpression expression, int variables) {
+        return pool.invoke(new CountTask(expression, variables, 0, words(expression, variables)));
+    }
+
+    // the consumer is called concurrently from the pool in no particular order
+    public void forEachModel(IndexedExpression expression, int variables, LongConsumer rows) {
+        pool.invoke(new ModelTask(expression, variables, 0, words(expression, variables), rows));
+    }
+
+    public long[] truthTable(IndexedExpression expression, int variables) {
+        if (RecordDesignPattern_12_BitSlicing.MAX_TRUTH_TABLE_VARIABLES < variables) {
+            throw new IllegalArgumentException("Too many variables for a truth table: " + variables);
+        }
+        long[] table = new long[(int) words(expression, variables)];
+        pool.invoke(new TableTask(expression, variables, 0, table.length, table));
+        return table;
+    }
+
+    public static Map<Variable, Value> assignment(long row, VariableSlots<Variable> slots) {
+        Map<Variable, Value> assignment = new LinkedHashMap<>();
+        for (int slot = 0; slot < slots.size(); slot++) {
+            assignment.put(slots.variable(slot), ((row >>> slot) & 1) == 1 ? TRUE : FALSE);
+        }
+        return assignment;
+    }
+
+    private static long words(IndexedExpression expression, int variables) {
+        if (variables < 0 || MAX_VARIABLES < variables) {
+            throw new IllegalArgumentException("Unsupported number of variables: " + variables);
+        }
+        int slots = slotsOf(expression);
+        if (variables < slots) {
+            throw new IllegalArgumentException("The expression uses " + slots + " slots but only "
+                    + variables + " variables are enumerated");
+        }
+        return (variables <= 6) ? 1 : 1L << (variables - 6);
+    }
+
+    // the highest slot + 1
+    private static int slotsOf(IndexedExpression expression) {
+        return switch (expression) {
+            case IndexedValue value -> 0;
+            case IndexedVariable(var slot) -> slot + 1;
+            case IndexedNot(var unnegated) -> slotsOf(unnegated);
+            case IndexedAnd(var left, var right) -> Math.max(slotsOf(left), slotsOf(right));
+            case IndexedOr(var left, var right) -> Math.max(slotsOf(left), slotsOf(right));
+        };
+    }
+
+    // the result bits of a word which belong to real rows
+    private static long validRows(int variables) {
+        return (variables < 6) ? (1L << (1 << variables)) - 1 : -1L;
+    }
+
+    private static long evaluateWord(IndexedExpression expression, int variables, long word, long[] words) {
+        for (int slot = 0; slot < variables; slot++) {
+            words[slot] = wordOf(slot, word);
+        }
+        return RecordDesignPattern_12_BitSlicing.evaluate(expression, words) & validRows(variables);
+    }
+
+    // wordOf() of RecordDesignPattern_12_BitSlicing only takes int word indices
+    private static long wordOf(int slot, long word) {
+        return (slot < 6) ? RecordDesignPattern_12_BitSlicing.wordOf(slot, 0) : -((word >>> (slot - 6)) & 1);
+    }
+
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private static final class CountTask extends RecursiveTask<Long> {
+        private final IndexedExpression expression;
+        private final int variables;
+        private final long from, to;
+
+        CountTask(IndexedExpression expression, int variables, long from, long to) {
+            this.expression = expression;
+            this.variables = variables;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= WORDS_PER_TASK) {
+                long[] words = new long[variables];
+                long count = 0;
+                for (long word = from; word < to; word++) {
+                    count += Long.bitCount(evaluateWord(expression, variables, word, words));
+                }
+                return count;
+            }
+            long middle = (from + to) >>> 1;
+            CountTask right = new CountTask(expression, variables, middle, to);
+            right.fork();
+            return new CountTask(expression, variables, from, middle).compute() + right.join();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ModelTask extends RecursiveAction {
+        private final IndexedExpression expression;
+        private final int variables;
+        private final long from, to;
+        private final LongConsumer rows;
+
+        ModelTask(IndexedExpression expression, int variables, long from, long to, LongConsumer rows) {
+            this.expression = expression;
+            this.variables = variables;
+            this.from = from;
+            this.to = to;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= WORDS_PER_TASK) {
+                long[] words = new long[variables];
+                for (long word = from; word < to; word++) {
+                    long result = evaluateWord(expression, variables, word, words);
+                    while (result != 0) {
+                        rows.accept((word << 6) | Long.numberOfTrailingZeros(result));
+                        result &= result - 1;
+                    }
+                }
+            } else {
+                long middle = (from + to) >>> 1;
+                invokeAll(new ModelTask(expression, variables, from, middle, rows),
+                        new ModelTask(expression, variables, middle, to, rows));
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class TableTask extends RecursiveAction {
+        private final IndexedExpression expression;
+        private final int variables;
+        private final int from, to;
+        private final long[] table;
+
+        TableTask(IndexedExpression expression, int variables, int from, int to, long[] table) {
+            this.expression = expression;
+            this.variables = variables;
+            this.from = from;
+            this.to = to;
+            this.table = table;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= WORDS_PER_TASK) {
+                long[] words = new long[variables];
+                for (int word = from; word < to; word++) {
+                    table[word] = evaluateWord(expression, variables, word, words);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TableTask(expression, variables, from, middle, table),
+                        new TableTask(expression, variables, middle, to, table));
+            }
+        }
+    }
+
+    /*
+    Output:
+    6 of 8 assignments satisfy (FALSE && !B || !(C && D)) && TRUE
+    {Variable[name=B]=FALSE, Variable[name=C]=FALSE, Variable[name=D]=FALSE}
+    The expression uses 3 slots but only 2 variables are enumerated
+    13 of 16 assignments satisfy (A && 1 && !B || !(C && D) || 0) && 1
+    24 variables: 70864 models counted, 70864 streamed, 70864 in the truth table
+     */
+    public static void main(String[] args) {
+        RecordDesignPattern_17_TruthTableEngine engine = new RecordDesignPattern_17_TruthTableEngine(ForkJoinPool.commonPool());
+
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        Variable D = new Variable("D");
+        Expression expression = new And(new Or(new And(FALSE, new Not(B)), new Not(new And(C, D))), TRUE);
+        VariableSlots<Variable> slots = new VariableSlots<>();
+        IndexedExpression indexed = RecordDesignPattern_13_VariableSlots.index(expression, slots);
+        System.out.println(engine.countModels(indexed, slots.size()) + " of 8 assignments satisfy "
+                + "(FALSE && !B || !(C && D)) && TRUE");
+        System.out.println(assignment(0, slots));
+        try {
+            engine.countModels(indexed, slots.size() - 1); // D would never be enumerated
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> a =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("A");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> b =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("B");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> c =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("C");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> d =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("D");
+        RecordDesignPattern_10_ListsAndGenerics.Expression<RecordDesignPattern_10_ListsAndGenerics.BitValue> bitExpression =
+                new RecordDesignPattern_10_ListsAndGenerics.And<>(
+                        new RecordDesignPattern_10_ListsAndGenerics.Or<>(
+                                new RecordDesignPattern_10_ListsAndGenerics.And<>(a,
+                                        RecordDesignPattern_10_ListsAndGenerics.BitValue._1,
+                                        new RecordDesignPattern_10_ListsAndGenerics.Not<>(b)),
+                                new RecordDesignPattern_10_ListsAndGenerics.Not<>(
+                                        new RecordDesignPattern_10_ListsAndGenerics.And<>(c, d)),
+                                RecordDesignPattern_10_ListsAndGenerics.BitValue._0),
+                        RecordDesignPattern_10_ListsAndGenerics.BitValue._1);
+        VariableSlots<RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue>>
+                bitSlots = new VariableSlots<>();
+        IndexedExpression indexedBits = RecordDesignPattern_12_BitSlicing.index(bitExpression, bitSlots);
+        System.out.println(engine.countModels(indexedBits, bitSlots.size()) + " of 16 assignments satisfy "
+                + RecordDesignPattern_15_StreamingRenderer.toString(bitExpression));
+
+        // a random 3-CNF with 24 variables and 40 clauses
+        List<Variable> variables = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            variables.add(new Variable("X" + i));
+        }
+        Random random = new Random(42);
+        Expression cnf = TRUE;
+        for (int i = 0; i < 40; i++) {
+            Expression clause = FALSE;
+            for (int j = 0; j < 3; j++) {
+                Variable x = variables.get(random.nextInt(variables.size()));
+                clause = new Or(clause, random.nextBoolean() ? x : new Not(x));
+            }
+            cnf = new And(cnf, clause);
+        }
+        VariableSlots<Variable> cnfSlots = new VariableSlots<>();
+        IndexedExpression indexedCnf = RecordDesignPattern_13_VariableSlots.index(cnf, cnfSlots);
+        LongAdder streamed = new LongAdder();
+        engine.forEachModel(indexedCnf, cnfSlots.size(), row -> streamed.increment());
+        long inTable = 0;
+        for (long word : engine.truthTable(indexedCnf, cnfSlots.size())) {
+            inTable += Long.bitCount(word);
+        }
+        System.out.println(cnfSlots.size() + " variables: " + engine.countModels(indexedCnf, cnfSlots.size())
+                + " models counted, " + streamed.sum() + " streamed, " + inTable + " in the truth table");
+    }
+}
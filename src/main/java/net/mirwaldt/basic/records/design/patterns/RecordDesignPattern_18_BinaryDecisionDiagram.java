@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/*
+ * A reduced ordered binary decision diagram. Nodes are ints into parallel arrays:
+ * 0 is the FALSE terminal, 1 the TRUE terminal. A unique table guarantees that every function has exactly
+ * one node so two expressions are equivalent if and only if their roots are the same int.
+ * Results of and/or/not are memoized in a direct-mapped operation cache: a colliding entry simply evicts the old one.
+ * Nodes are never freed, so use one diagram per batch of rules.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_18_BinaryDecisionDiagram<T> {
+    public static final int FALSE = 0, TRUE = 1;
+    private static final int NOT = 0, AND = 1, OR = 2;
+
+    private final Map<T, Integer> levels = new HashMap<>();
+    private final List<T> order;
+
+    private int[] level, low, high;
+    private int size;
+    private int[] uniqueTable;
+
+    private final int[] cacheOperation, cacheLeft, cacheRight, cacheResult;
+    private final int cacheMask;
+
+    public RecordDesignPattern_18_BinaryDecisionDiagram(List<T> order) {
+        this(order, 1 << 16);
+    }
+
+    // cacheSize is rounded up to a power of two
+    public RecordDesignPattern_18_BinaryDecisionDiagram(List<T> order, int cacheSize) {
+        this.order = List.copyOf(order);
+        for (int i = 0; i < this.order.size(); i++) {
+            if (levels.put(this.order.get(i), i) != null) {
+                throw new IllegalArgumentException("Variable twice in order: " + this.order.get(i));
+            }
+        }
+
+        int capacity = 1024;
+        level = new int[capacity];
+        low = new int[capacity];
+        high = new int[capacity];
+        uniqueTable = new int[2 * capacity];
+        level[FALSE] = level[TRUE] = this.order.size();
+        size = 2;
+
+        int cacheCapacity = Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+        cacheOperation = new int[cacheCapacity];
+        Arrays.fill(cacheOperation, -1);
+        cacheLeft = new int[cacheCapacity];
+        cacheRight = new int[cacheCapacity];
+        cacheResult = new int[cacheCapacity];
+        cacheMask = cacheCapacity - 1;
+    }
+
+    //-------------------------------------------------- construction --------------------------------------------------
+
+    public int variable(T variable) {
+        Integer variableLevel = levels.get(variable);
+        if (variableLevel == null) {
+            throw new IllegalArgumentException("Variable not in order: " + variable);
+        }
+        return node(variableLevel, FALSE, TRUE);
+    }
+
+    public int constant(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public int not(int f) {
+        if (f <= TRUE) {
+            return TRUE - f;
+        }
+        int cached = cached(NOT, f, 0);
+        if (cached < 0) {
+            cached = cache(NOT, f, 0, node(level[f], not(low[f]), not(high[f])));
+        }
+        return cached;
+    }
+
+    public int and(int f, int g) {
+        if (f == FALSE || g == FALSE) {
+            return FALSE;
+        } else if (f == TRUE || f == g) {
+            return g;
+        } else if (g == TRUE) {
+            return f;
+        }
+        return apply(AND, Math.min(f, g), Math.max(f, g));
+    }
+
+    public int or(int f, int g) {
+        if (f == TRUE || g == TRUE) {
+            return TRUE;
+        } else if (f == FALSE || f == g) {
+            return g;
+        } else if (g == FALSE) {
+            return f;
+        }
+        return apply(OR, Math.min(f, g), Math.max(f, g));
+    }
+
+    private int apply(int operation, int f, int g) {
+        int cached = cached(operation, f, g);
+        if (0 <= cached) {
+            return cached;
+        }
+        int top = Math.min(level[f], level[g]);
+        int fLow = (level[f] == top) ? low[f] : f, fHigh = (level[f] == top) ? high[f] : f;
+        int gLow = (level[g] == top) ? low[g] : g, gHigh = (level[g] == top) ? high[g] : g;
+        int result = (operation == AND)
+                ? node(top, and(fLow, gLow), and(fHigh, gHigh))
+                : node(top, or(fLow, gLow), or(fHigh, gHigh));
+        return cache(operation, f, g, result);
+    }
+
+    public int build(RecordDesignPattern_08_Evaluate.Expression expression) {
+        return switch (expression) {
+            case RecordDesignPattern_08_Evaluate.Value value -> constant(value == RecordDesignPattern_08_Evaluate.Value.TRUE);
+            case RecordDesignPattern_08_Evaluate.Variable variable -> variable(cast(variable));
+            case RecordDesignPattern_08_Evaluate.Not(var unnegated) -> not(build(unnegated));
+            case RecordDesignPattern_08_Evaluate.And(var left, var right) -> and(build(left), build(right));
+            case RecordDesignPattern_08_Evaluate.Or(var left, var right) -> or(build(left), build(right));
+        };
+    }
+
+    public <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> int build(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression) {
+        return switch (expression) {
+            case RecordDesignPattern_10_ListsAndGenerics.Variable<V> variable -> variable(cast(variable));
+            case RecordDesignPattern_10_ListsAndGenerics.Not<V>(var unnegated) -> not(build(unnegated));
+            case RecordDesignPattern_10_ListsAndGenerics.Brackets<V>(var withoutBrackets) -> build(withoutBrackets);
+            case RecordDesignPattern_10_ListsAndGenerics.And<V>(var first, var second, var tail) -> {
+                int and = and(build(first), build(second));
+                for (int i = 0; and != FALSE && i < tail.size(); i++) {
+                    and = and(and, build(tail.get(i)));
+                }
+                yield and;
+            }
+            case RecordDesignPattern_10_ListsAndGenerics.Or<V>(var first, var second, var tail) -> {
+                int or = or(build(first), build(second));
+                for (int i = 0; or != TRUE && i < tail.size(); i++) {
+                    or = or(or, build(tail.get(i)));
+                }
+                yield or;
+            }
+            case RecordDesignPattern_10_ListsAndGenerics.Value<V> value -> constant(value == value.getTrue());
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(Object variable) {
+        return (T) variable;
+    }
+
+    //---------------------------------------------------- queries -----------------------------------------------------
+
+    // follows one path from the root to a terminal, so it takes at most order().size() steps
+    public boolean evaluate(int root, Predicate<T> isTrue) {
+        int node = root;
+        while (TRUE < node) {
+            node = isTrue.test(order.get(level[node])) ? high[node] : low[node];
+        }
+        return node == TRUE;
+    }
+
+    public BigInteger countModels(int root) {
+        return countModels(root, new HashMap<>()).shiftLeft(level[root]);
+    }
+
+    // models of the function of node over the variables from its level down
+    private BigInteger countModels(int node, Map<Integer, BigInteger> memo) {
+        if (node <= TRUE) {
+            return BigInteger.valueOf(node);
+        }
+        BigInteger count = memo.get(node);
+        if (count == null) {
+            count = countModels(low[node], memo).shiftLeft(level[low[node]] - level[node] - 1)
+                    .add(countModels(high[node], memo).shiftLeft(level[high[node]] - level[node] - 1));
+            memo.put(node, count);
+        }
+        return count;
+    }
+
+    public boolean equivalent(int f, int g) {
+        return f == g;
+    }
+
+    public List<T> order() {
+        return order;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //-------------------------------------------------- unique table --------------------------------------------------
+
+    private int node(int variableLevel, int lowNode, int highNode) {
+        if (lowNode == highNode) {
+            return lowNode;
+        }
+        int mask = uniqueTable.length - 1;
+        for (int i = hash(variableLevel, lowNode, highNode) & mask; ; i = (i + 1) & mask) {
+            int candidate = uniqueTable[i] - 1;
+            if (candidate < 0) {
+                int node = newNode(variableLevel, lowNode, highNode);
+                uniqueTable[i] = node + 1;
+                if (uniqueTable.length < 2 * size) {
+                    grow();
+                }
+                return node;
+            } else if (level[candidate] == variableLevel && low[candidate] == lowNode && high[candidate] == highNode) {
+                return candidate;
+            }
+        }
+    }
+
+    private int newNode(int variableLevel, int lowNode, int highNode) {
+        if (size == level.length) {
+            level = Arrays.copyOf(level, 2 * size);
+            low = Arrays.copyOf(low, 2 * size);
+            high = Arrays.copyOf(high, 2 * size);
+        }
+        level[size] = variableLevel;
+        low[size] = lowNode;
+        high[size] = highNode;
+        return size++;
+    }
+
+    private void grow() {
+        uniqueTable = new int[2 * uniqueTable.length];
+        int mask = uniqueTable.length - 1;
+        for (int node = 2; node < size; node++) {
+            int i = hash(level[node], low[node], high[node]) & mask;
+            while (uniqueTable[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            uniqueTable[i] = node + 1;
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        int h = (a * 31 + b) * 0x9E3779B9 + c;
+        return h ^ (h >>> 16);
+    }
+
+    //------------------------------------------------- operation cache ------------------------------------------------
+
+    private int cached(int operation, int f, int g) {
+        int i = hash(operation, f, g) & cacheMask;
+        return (cacheOperation[i] == operation && cacheLeft[i] == f && cacheRight[i] == g) ? cacheResult[i] : -1;
+    }
+
+    private int cache(int operation, int f, int g, int result) {
+        int i = hash(operation, f, g) & cacheMask;
+        cacheOperation[i] = operation;
+        cacheLeft[i] = f;
+        cacheRight[i] = g;
+        cacheResult[i] = result;
+        return result;
+    }
+
+    /*
+    Output:
+    6 models
+    true
+    false
+    13 models
+    true
+    1 model: A == B == C == D == E == F == G == H
+     */
+    public static void main(String[] args) {
+        RecordDesignPattern_08_Evaluate.Variable B = new RecordDesignPattern_08_Evaluate.Variable("B");
+        RecordDesignPattern_08_Evaluate.Variable C = new RecordDesignPattern_08_Evaluate.Variable("C");
+        RecordDesignPattern_08_Evaluate.Variable D = new RecordDesignPattern_08_Evaluate.Variable("D");
+        RecordDesignPattern_18_BinaryDecisionDiagram<Object> bdd = new RecordDesignPattern_18_BinaryDecisionDiagram<>(
+                List.of(B, C, D));
+
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        RecordDesignPattern_08_Evaluate.Expression expression = new RecordDesignPattern_08_Evaluate.And(
+                new RecordDesignPattern_08_Evaluate.Or(
+                        new RecordDesignPattern_08_Evaluate.And(RecordDesignPattern_08_Evaluate.Value.FALSE,
+                                new RecordDesignPattern_08_Evaluate.Not(B)),
+                        new RecordDesignPattern_08_Evaluate.Not(new RecordDesignPattern_08_Evaluate.And(C, D))),
+                RecordDesignPattern_08_Evaluate.Value.TRUE);
+        int root = bdd.build(expression);
+        System.out.println(bdd.countModels(root) + " models");
+
+        // equivalent to "!C || !D"
+        int deMorgan = bdd.build(new RecordDesignPattern_08_Evaluate.Or(
+                new RecordDesignPattern_08_Evaluate.Not(C), new RecordDesignPattern_08_Evaluate.Not(D)));
+        System.out.println(bdd.equivalent(root, deMorgan));
+
+        // B=FALSE, C=TRUE, D=TRUE: false
+        System.out.println(bdd.evaluate(root, variable -> variable != B));
+
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> a =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("A");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> b =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("B");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> c =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("C");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<RecordDesignPattern_10_ListsAndGenerics.BitValue> d =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("D");
+        RecordDesignPattern_18_BinaryDecisionDiagram<Object> bitBdd = new RecordDesignPattern_18_BinaryDecisionDiagram<>(
+                List.of(a, b, c, d));
+        // "(A && 1 && !B || !(C && D) || 0) && 1" with explicit brackets which are ignored
+        RecordDesignPattern_10_ListsAndGenerics.Expression<RecordDesignPattern_10_ListsAndGenerics.BitValue> bitExpression =
+                RecordDesignPattern_10_ListsAndGenerics.withBrackets(new RecordDesignPattern_10_ListsAndGenerics.And<>(
+                        new RecordDesignPattern_10_ListsAndGenerics.Or<>(
+                                new RecordDesignPattern_10_ListsAndGenerics.And<>(a,
+                                        RecordDesignPattern_10_ListsAndGenerics.BitValue._1,
+                                        new RecordDesignPattern_10_ListsAndGenerics.Not<>(b)),
+                                new RecordDesignPattern_10_ListsAndGenerics.Not<>(
+                                        new RecordDesignPattern_10_ListsAndGenerics.And<>(c, d)),
+                                RecordDesignPattern_10_ListsAndGenerics.BitValue._0),
+                        RecordDesignPattern_10_ListsAndGenerics.BitValue._1), null);
+        int bitRoot = bitBdd.build(bitExpression);
+        System.out.println(bitBdd.countModels(bitRoot) + " models");
+        System.out.println(bitBdd.evaluate(bitRoot, variable -> variable == a));
+
+        // all eight variables are equal: a chain of equivalences has exactly two models, fixing A leaves one
+        List<String> names = List.of("A", "B", "C", "D", "E", "F", "G", "H");
+        RecordDesignPattern_18_BinaryDecisionDiagram<String> chain = new RecordDesignPattern_18_BinaryDecisionDiagram<>(names);
+        int equal = chain.variable("A");
+        for (int i = 0; i + 1 < names.size(); i++) {
+            int x = chain.variable(names.get(i)), y = chain.variable(names.get(i + 1));
+            equal = chain.and(equal, chain.or(chain.and(x, y), chain.and(chain.not(x), chain.not(y))));
+        }
+        System.out.println(chain.countModels(equal) + " model: " + String.join(" == ", names));
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Brackets;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.WithManyOperands;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._0;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._1;
+
+/*
+ * Simplifies an expression bottom-up: constants are folded, double negations and Brackets are removed,
+ * nested And/Or are flattened into their parent and duplicate operands are dropped.
+ * An operand next to its own negation decides the whole And/Or.
+ * The memo is an IdentityHashMap so a subtree which is shared in the input is only simplified once.
+ * The binary And/Or of RecordDesignPattern_08_Evaluate and RecordDesignPattern_07_Enum are collected along a chain
+ * of the same operator first so that duplicates and complements are found anywhere in the chain.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_19_Simplifier {
+    public static <V extends Value<V>> Expression<V> simplify(Expression<V> expression) {
+        return simplify(expression, new IdentityHashMap<>());
+    }
+
+    private static <V extends Value<V>> Expression<V> simplify(Expression<V> expression,
+                                                               Map<Expression<V>, Expression<V>> memo) {
+        Expression<V> simplified = memo.get(expression);
+        if (simplified == null) {
+            simplified = switch (expression) {
+                case Brackets<V>(var withoutBrackets) -> simplify(withoutBrackets, memo);
+                case Not<V>(var unnegated) -> negate(simplify(unnegated, memo));
+                case And<V> and -> simplify(false, and, memo);
+                case Or<V> or -> simplify(true, or, memo);
+                default -> expression;
+            };
+            memo.put(expression, simplified);
+        }
+        return simplified;
+    }
+
+    private static <V extends Value<V>> Expression<V> negate(Expression<V> expression) {
+        return switch (expression) {
+            case Value<V> value -> value.negate();
+            case Not<V>(var unnegated) -> unnegated;
+            default -> new Not<>(expression);
+        };
+    }
+
+    // the decisive value of And is false and that of Or is true
+    private static <V extends Value<V>> Expression<V> simplify(boolean isOr, WithManyOperands<V> many,
+                                                               Map<Expression<V>, Expression<V>> memo) {
+        List<Expression<V>> operands = new ArrayList<>();
+        switch (many) {
+            case And<V>(var first, var second, var tail) -> addAll(operands, first, second, tail);
+            case Or<V>(var first, var second, var tail) -> addAll(operands, first, second, tail);
+        }
+
+        Set<Expression<V>> simplifiedOperands = new LinkedHashSet<>();
+        V neutral = null;
+        for (Expression<V> operand : operands) {
+            Expression<V> simplified = simplify(operand, memo);
+            List<Expression<V>> flattened = new ArrayList<>();
+            switch (simplified) {
+                case And<V>(var first, var second, var tail) when !isOr -> addAll(flattened, first, second, tail);
+                case Or<V>(var first, var second, var tail) when isOr -> addAll(flattened, first, second, tail);
+                default -> flattened.add(simplified);
+            }
+            for (Expression<V> flat : flattened) {
+                if (flat instanceof Value<V> value) {
+                    V decisive = isOr ? value.getTrue() : value.getFalse();
+                    if (value == decisive) {
+                        return decisive;
+                    }
+                    neutral = isOr ? value.getFalse() : value.getTrue();
+                } else if (simplifiedOperands.contains(negate(flat))) {
+                    return complementOf(isOr, flat, neutral, simplifiedOperands);
+                } else {
+                    simplifiedOperands.add(flat);
+                }
+            }
+        }
+
+        List<Expression<V>> result = new ArrayList<>(simplifiedOperands);
+        return switch (result.size()) {
+            case 0 -> neutral;
+            case 1 -> result.get(0);
+            default -> isOr
+                    ? new Or<>(result.get(0), result.get(1), result.subList(2, result.size()))
+                    : new And<>(result.get(0), result.get(1), result.subList(2, result.size()));
+        };
+    }
+
+    // x && !x is false and x || !x is true but without a constant operand V must be taken from elsewhere
+    private static <V extends Value<V>> Expression<V> complementOf(boolean isOr, Expression<V> operand,
+                                                                   V neutral, Set<Expression<V>> operands) {
+        if (neutral != null) {
+            return neutral.negate();
+        }
+        for (Expression<V> expression : operands) {
+            V value = anyValue(expression);
+            if (value != null) {
+                return isOr ? value.getTrue() : value.getFalse();
+            }
+        }
+        V value = anyValue(operand);
+        if (value != null) {
+            return isOr ? value.getTrue() : value.getFalse();
+        }
+        // no constant anywhere: the tautology/contradiction must stay as it is
+        return isOr ? new Or<>(operand, negate(operand)) : new And<>(operand, negate(operand));
+    }
+
+    private static <V extends Value<V>> V anyValue(Expression<V> expression) {
+        return switch (expression) {
+            case Value<V> value -> value.getTrue();
+            case Variable<V> variable -> null;
+            case Not<V>(var unnegated) -> anyValue(unnegated);
+            case Brackets<V>(var withoutBrackets) -> anyValue(withoutBrackets);
+            case And<V>(var first, var second, var tail) -> anyValue(first, second, tail);
+            case Or<V>(var first, var second, var tail) -> anyValue(first, second, tail);
+        };
+    }
+
+    private static <V extends Value<V>> V anyValue(Expression<V> first, Expression<V> second,
+                                                   List<Expression<V>> tail) {
+        V value = anyValue(first);
+        value = (value != null) ? value : anyValue(second);
+        for (int i = 0; value == null && i < tail.size(); i++) {
+            value = anyValue(tail.get(i));
+        }
+        return value;
+    }
+
+    private static <V extends Value<V>> void addAll(List<Expression<V>> operands, Expression<V> first,
+                                                    Expression<V> second, List<Expression<V>> tail) {
+        operands.add(first);
+        operands.add(second);
+        operands.addAll(tail);
+    }
+
+    //------------------------------------------ RecordDesignPattern_08_Evaluate ------------------------------------------
+
+    public static RecordDesignPattern_08_Evaluate.Expression simplify(RecordDesignPattern_08_Evaluate.Expression expression) {
+        return simplify(expression, new IdentityHashMap<>());
+    }
+
+    private static RecordDesignPattern_08_Evaluate.Expression simplify(
+            RecordDesignPattern_08_Evaluate.Expression expression,
+            Map<RecordDesignPattern_08_Evaluate.Expression, RecordDesignPattern_08_Evaluate.Expression> memo) {
+        RecordDesignPattern_08_Evaluate.Expression simplified = memo.get(expression);
+        if (simplified == null) {
+            simplified = switch (expression) {
+                case RecordDesignPattern_08_Evaluate.Not(var unnegated) -> negate(simplify(unnegated, memo));
+                case RecordDesignPattern_08_Evaluate.And and -> simplify(false, and, memo);
+                case RecordDesignPattern_08_Evaluate.Or or -> simplify(true, or, memo);
+                default -> expression;
+            };
+            memo.put(expression, simplified);
+        }
+        return simplified;
+    }
+
+    private static RecordDesignPattern_08_Evaluate.Expression negate(RecordDesignPattern_08_Evaluate.Expression expression) {
+        return switch (expression) {
+            case RecordDesignPattern_08_Evaluate.Value value -> (value == RecordDesignPattern_08_Evaluate.Value.TRUE)
+                    ? RecordDesignPattern_08_Evaluate.Value.FALSE
+                    : RecordDesignPattern_08_Evaluate.Value.TRUE;
+            case RecordDesignPattern_08_Evaluate.Not(var unnegated) -> unnegated;
+            default -> new RecordDesignPattern_08_Evaluate.Not(expression);
+        };
+    }
+
+    // a chain like "A && (B && A) && C" is collected into one set of operands and then rebuilt left-deep
+    private static RecordDesignPattern_08_Evaluate.Expression simplify(boolean isOr,
+                                                                      RecordDesignPattern_08_Evaluate.Expression chain,
+            Map<RecordDesignPattern_08_Evaluate.Expression, RecordDesignPattern_08_Evaluate.Expression> memo) {
+        RecordDesignPattern_08_Evaluate.Value decisive = isOr
+                ? RecordDesignPattern_08_Evaluate.Value.TRUE
+                : RecordDesignPattern_08_Evaluate.Value.FALSE;
+        Set<RecordDesignPattern_08_Evaluate.Expression> operands = new LinkedHashSet<>();
+        Set<RecordDesignPattern_08_Evaluate.Expression> negated = new HashSet<>();
+        if (!collect(isOr, chain, memo, operands, negated)) {
+            return decisive;
+        }
+        RecordDesignPattern_08_Evaluate.Expression result = null;
+        for (RecordDesignPattern_08_Evaluate.Expression operand : operands) {
+            result = (result == null) ? operand : isOr
+                    ? new RecordDesignPattern_08_Evaluate.Or(result, operand)
+                    : new RecordDesignPattern_08_Evaluate.And(result, operand);
+        }
+        return (result == null) ? negate(decisive) : result;
+    }
+
+    // returns false as soon as the chain is decided
+    private static boolean collect(boolean isOr, RecordDesignPattern_08_Evaluate.Expression expression,
+            Map<RecordDesignPattern_08_Evaluate.Expression, RecordDesignPattern_08_Evaluate.Expression> memo,
+            Set<RecordDesignPattern_08_Evaluate.Expression> operands,
+            Set<RecordDesignPattern_08_Evaluate.Expression> negated) {
+        return switch (expression) {
+            case RecordDesignPattern_08_Evaluate.And(var left, var right) when !isOr ->
+                    collect(isOr, left, memo, operands, negated) && collect(isOr, right, memo, operands, negated);
+            case RecordDesignPattern_08_Evaluate.Or(var left, var right) when isOr ->
+                    collect(isOr, left, memo, operands, negated) && collect(isOr, right, memo, operands, negated);
+            default -> add(isOr, simplify(expression, memo), operands, negated);
+        };
+    }
+
+    // negated holds x for every operand !x so x next to !x is found without allocating a Not
+    private static boolean add(boolean isOr, RecordDesignPattern_08_Evaluate.Expression simplified,
+                               Set<RecordDesignPattern_08_Evaluate.Expression> operands,
+                               Set<RecordDesignPattern_08_Evaluate.Expression> negated) {
+        switch (simplified) {
+            case RecordDesignPattern_08_Evaluate.And(var left, var right) when !isOr -> {
+                return add(isOr, left, operands, negated) && add(isOr, right, operands, negated);
+            }
+            case RecordDesignPattern_08_Evaluate.Or(var left, var right) when isOr -> {
+                return add(isOr, left, operands, negated) && add(isOr, right, operands, negated);
+            }
+            case RecordDesignPattern_08_Evaluate.Value value -> {
+                return (value == RecordDesignPattern_08_Evaluate.Value.TRUE) != isOr;
+            }
+            case RecordDesignPattern_08_Evaluate.Not(var unnegated) -> {
+                if (operands.contains(unnegated)) {
+                    return false;
+                }
+                negated.add(unnegated);
+            }
+            default -> {
+                if (negated.contains(simplified)) {
+                    return false;
+                }
+            }
+        }
+        operands.add(simplified);
+        return true;
+    }
+
+    //------------------------------------------ RecordDesignPattern_07_Enum ------------------------------------------
+
+    // the same as for RecordDesignPattern_08_Evaluate except that Brackets are dropped
+    public static RecordDesignPattern_07_Enum.Expression simplify(RecordDesignPattern_07_Enum.Expression expression) {
+        return simplify(expression, new IdentityHashMap<>());
+    }
+
+    private static RecordDesignPattern_07_Enum.Expression simplify(
+            RecordDesignPattern_07_Enum.Expression expression,
+            Map<RecordDesignPattern_07_Enum.Expression, RecordDesignPattern_07_Enum.Expression> memo) {
+        RecordDesignPattern_07_Enum.Expression simplified = memo.get(expression);
+        if (simplified == null) {
+            simplified = switch (expression) {
+                case RecordDesignPattern_07_Enum.Brackets(var withoutBrackets) -> simplify(withoutBrackets, memo);
+                case RecordDesignPattern_07_Enum.Not(var unnegated) -> negate(simplify(unnegated, memo));
+                case RecordDesignPattern_07_Enum.And and -> simplify(false, and, memo);
+                case RecordDesignPattern_07_Enum.Or or -> simplify(true, or, memo);
+                default -> expression;
+            };
+            memo.put(expression, simplified);
+        }
+        return simplified;
+    }
+
+    private static RecordDesignPattern_07_Enum.Expression negate(RecordDesignPattern_07_Enum.Expression expression) {
+        return switch (expression) {
+            case RecordDesignPattern_07_Enum.Value value -> (value == RecordDesignPattern_07_Enum.Value.TRUE)
+                    ? RecordDesignPattern_07_Enum.Value.FALSE
+                    : RecordDesignPattern_07_Enum.Value.TRUE;
+            case RecordDesignPattern_07_Enum.Not(var unnegated) -> unnegated;
+            default -> new RecordDesignPattern_07_Enum.Not(expression);
+        };
+    }
+
+    private static RecordDesignPattern_07_Enum.Expression simplify(boolean isOr,
+                                                                  RecordDesignPattern_07_Enum.Expression chain,
+            Map<RecordDesignPattern_07_Enum.Expression, RecordDesignPattern_07_Enum.Expression> memo) {
+        RecordDesignPattern_07_Enum.Value decisive = isOr
+                ? RecordDesignPattern_07_Enum.Value.TRUE
+                : RecordDesignPattern_07_Enum.Value.FALSE;
+        Set<RecordDesignPattern_07_Enum.Expression> operands = new LinkedHashSet<>();
+        Set<RecordDesignPattern_07_Enum.Expression> negated = new HashSet<>();
+        if (!collect(isOr, chain, memo, operands, negated)) {
+            return decisive;
+        }
+        RecordDesignPattern_07_Enum.Expression result = null;
+        for (RecordDesignPattern_07_Enum.Expression operand : operands) {
+            result = (result == null) ? operand : isOr
+                    ? new RecordDesignPattern_07_Enum.Or(result, operand)
+                    : new RecordDesignPattern_07_Enum.And(result, operand);
+        }
+        return (result == null) ? negate(decisive) : result;
+    }
+
+    private static boolean collect(boolean isOr, RecordDesignPattern_07_Enum.Expression expression,
+            Map<RecordDesignPattern_07_Enum.Expression, RecordDesignPattern_07_Enum.Expression> memo,
+            Set<RecordDesignPattern_07_Enum.Expression> operands,
+            Set<RecordDesignPattern_07_Enum.Expression> negated) {
+        return switch (expression) {
+            case RecordDesignPattern_07_Enum.Brackets(var withoutBrackets) ->
+                    collect(isOr, withoutBrackets, memo, operands, negated);
+            case RecordDesignPattern_07_Enum.And(var left, var right) when !isOr ->
+                    collect(isOr, left, memo, operands, negated) && collect(isOr, right, memo, operands, negated);
+            case RecordDesignPattern_07_Enum.Or(var left, var right) when isOr ->
+                    collect(isOr, left, memo, operands, negated) && collect(isOr, right, memo, operands, negated);
+            default -> add(isOr, simplify(expression, memo), operands, negated);
+        };
+    }
+
+    private static boolean add(boolean isOr, RecordDesignPattern_07_Enum.Expression simplified,
+                               Set<RecordDesignPattern_07_Enum.Expression> operands,
+                               Set<RecordDesignPattern_07_Enum.Expression> negated) {
+        switch (simplified) {
+            case RecordDesignPattern_07_Enum.And(var left, var right) when !isOr -> {
+                return add(isOr, left, operands, negated) && add(isOr, right, operands, negated);
+            }
+            case RecordDesignPattern_07_Enum.Or(var left, var right) when isOr -> {
+                return add(isOr, left, operands, negated) && add(isOr, right, operands, negated);
+            }
+            case RecordDesignPattern_07_Enum.Value value -> {
+                return (value == RecordDesignPattern_07_Enum.Value.TRUE) != isOr;
+            }
+            case RecordDesignPattern_07_Enum.Not(var unnegated) -> {
+                if (operands.contains(unnegated)) {
+                    return false;
+                }
+                negated.add(unnegated);
+            }
+            default -> {
+                if (negated.contains(simplified)) {
+                    return false;
+                }
+            }
+        }
+        operands.add(simplified);
+        return true;
+    }
+
+    /*
+    Output:
+    (A && !B || !(C && D)) && (E || F || G)
+    A && !B || !(C && D)
+    Not[unnegated=And[left=Variable[name=C], right=Variable[name=D]]]
+    equivalent: true
+    0
+    FALSE
+    B && C && D
+     */
+    public static void main(String[] args) {
+        Variable<BitValue> A = new Variable<>("A");
+        Variable<BitValue> B = new Variable<>("B");
+        Variable<BitValue> C = new Variable<>("C");
+        Variable<BitValue> D = new Variable<>("D");
+        Variable<BitValue> E = new Variable<>("E");
+        Variable<BitValue> F = new Variable<>("F");
+        Variable<BitValue> G = new Variable<>("G");
+
+        // "!!((A && 1 && !B || !(C && D) || 0) && 1 && (E || (F || G) || E))"
+        Expression<BitValue> nested = new Not<>(new Not<>(new Brackets<>(new And<>(
+                new Or<>(new And<>(A, _1, new Not<>(B)), new Not<>(new And<>(C, D)), _0), _1,
+                new Or<>(E, new Or<>(F, G), E)))));
+        System.out.println(RecordDesignPattern_15_StreamingRenderer.toString(simplify(nested)));
+
+        // "(A && 1 && !B || !(C && D) || 0) && 1"
+        Expression<BitValue> bitExpression =
+                new And<>(new Or<>(new And<>(A, _1, new Not<>(B)), new Not<>(new And<>(C, D)), _0), _1);
+        Expression<BitValue> simplified = simplify(bitExpression);
+        System.out.println(RecordDesignPattern_15_StreamingRenderer.toString(simplified));
+
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        RecordDesignPattern_08_Evaluate.Variable b = new RecordDesignPattern_08_Evaluate.Variable("B");
+        RecordDesignPattern_08_Evaluate.Variable c = new RecordDesignPattern_08_Evaluate.Variable("C");
+        RecordDesignPattern_08_Evaluate.Variable d = new RecordDesignPattern_08_Evaluate.Variable("D");
+        RecordDesignPattern_08_Evaluate.Expression expression = new RecordDesignPattern_08_Evaluate.And(
+                new RecordDesignPattern_08_Evaluate.Or(
+                        new RecordDesignPattern_08_Evaluate.And(RecordDesignPattern_08_Evaluate.Value.FALSE,
+                                new RecordDesignPattern_08_Evaluate.Not(b)),
+                        new RecordDesignPattern_08_Evaluate.Not(new RecordDesignPattern_08_Evaluate.And(c, d))),
+                RecordDesignPattern_08_Evaluate.Value.TRUE);
+        RecordDesignPattern_08_Evaluate.Expression simplifiedExpression = simplify(expression);
+        System.out.println(simplifiedExpression);
+
+        RecordDesignPattern_18_BinaryDecisionDiagram<Object> bdd =
+                new RecordDesignPattern_18_BinaryDecisionDiagram<>(List.of(A, B, C, D));
+        System.out.println("equivalent: " + bdd.equivalent(bdd.build(bitExpression), bdd.build(simplified)));
+
+        // "A && 1 && !A"
+        System.out.println(RecordDesignPattern_15_StreamingRenderer.toString(simplify(new And<>(A, _1, new Not<>(A)))));
+
+        // "(B && C) && !B" where B and !B are not operands of the same node
+        System.out.println(simplify(new RecordDesignPattern_08_Evaluate.And(
+                new RecordDesignPattern_08_Evaluate.And(b, c), new RecordDesignPattern_08_Evaluate.Not(b))));
+
+        // "(B && (C && B)) && !!D"
+        RecordDesignPattern_07_Enum.Variable b7 = new RecordDesignPattern_07_Enum.Variable("B");
+        RecordDesignPattern_07_Enum.Variable c7 = new RecordDesignPattern_07_Enum.Variable("C");
+        RecordDesignPattern_07_Enum.Variable d7 = new RecordDesignPattern_07_Enum.Variable("D");
+        RecordDesignPattern_07_Enum.Expression enumExpression = new RecordDesignPattern_07_Enum.And(
+                new RecordDesignPattern_07_Enum.Brackets(new RecordDesignPattern_07_Enum.And(b7,
+                        new RecordDesignPattern_07_Enum.Brackets(new RecordDesignPattern_07_Enum.And(c7, b7)))),
+                new RecordDesignPattern_07_Enum.Not(new RecordDesignPattern_07_Enum.Not(d7)));
+        System.out.println(RecordDesignPattern_07_Enum.toString(simplify(enumExpression)));
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.Assignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.LongAssignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.VariableSlots;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+
+/*
+ * Evaluates an expression with short-circuiting like RecordDesignPattern_08_Evaluate.evaluate and
+ * RecordDesignPattern_09_VisitorPattern.Evaluator but learns which operand order is cheapest.
+ * Chains of And/Or are flattened into junctions. Every samplingInterval-th evaluation measures for each operand
+ * how long it takes and how often it decides its junction. Every reorderInterval evaluations the operands of every
+ * junction are sorted by cost per decision and the statistics are halved so the plan follows changing traffic.
+ * Reordering is safe because And and Or are commutative. Not thread-safe: use one evaluator per thread.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_20_AdaptiveEvaluator {
+    record Configuration(int samplingInterval, int reorderInterval) {
+        Configuration {
+            if (samplingInterval < 1 || reorderInterval < 1) {
+                throw new IllegalArgumentException("Intervals must be positive: " + samplingInterval + ", " + reorderInterval);
+            }
+        }
+
+        static Configuration defaults() {
+            return new Configuration(16, 4096);
+        }
+    }
+
+    sealed interface Plan permits ConstantPlan, VariablePlan, NotPlan, Junction {
+
+    }
+
+    record ConstantPlan(boolean value) implements Plan {
+
+    }
+
+    record VariablePlan(int slot, String name) implements Plan {
+
+    }
+
+    record NotPlan(Plan unnegated) implements Plan {
+
+    }
+
+    // isOr decides the kind: an Or junction is decided by the first true operand, an And junction by the first false
+    record Junction(boolean isOr, Operand[] operands) implements Plan {
+
+    }
+
+    static final class Operand {
+        private final Plan plan;
+        private long evaluations, decisions, nanos;
+
+        Operand(Plan plan) {
+            this.plan = plan;
+        }
+
+        // nanos per evaluation divided by the decision rate which is smoothed with (decisions + 1) / (evaluations + 2)
+        // so an operand which has not decided yet keeps a finite cost; an unmeasured operand costs 0 to be measured next
+        double costPerDecision() {
+            if (evaluations == 0) {
+                return 0;
+            }
+            double costPerEvaluation = (double) nanos / evaluations;
+            double decisionRate = (decisions + 1.0) / (evaluations + 2.0);
+            return costPerEvaluation / decisionRate;
+        }
+    }
+
+    private final Plan plan;
+    private final Configuration configuration;
+    private final VariableSlots<Variable> slots;
+    private long evaluations;
+
+    private RecordDesignPattern_20_AdaptiveEvaluator(Plan plan, VariableSlots<Variable> slots,
+                                                     Configuration configuration) {
+        this.plan = plan;
+        this.slots = slots;
+        this.configuration = configuration;
+    }
+
+    public static RecordDesignPattern_20_AdaptiveEvaluator of(Expression expression, VariableSlots<Variable> slots,
+                                                             Configuration configuration) {
+        return new RecordDesignPattern_20_AdaptiveEvaluator(plan(expression, slots), slots, configuration);
+    }
+
+    // plans of RecordDesignPattern_09_VisitorPattern expressions use slots of its Variable records
+    public static RecordDesignPattern_20_AdaptiveEvaluator of(RecordDesignPattern_09_VisitorPattern.Expression expression,
+                                                             VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> slots,
+                                                             Configuration configuration) {
+        return new RecordDesignPattern_20_AdaptiveEvaluator(plan(expression, slots), null, configuration);
+    }
+
+    private static Plan plan(Expression expression, VariableSlots<Variable> slots) {
+        return switch (expression) {
+            case Value value -> new ConstantPlan(value == TRUE);
+            case Variable variable -> new VariablePlan(slots.slotOf(variable), variable.name());
+            case Not(var unnegated) -> new NotPlan(plan(unnegated, slots));
+            case And and -> junction(false, flatten(and, And.class, new ArrayList<>()), slots);
+            case Or or -> junction(true, flatten(or, Or.class, new ArrayList<>()), slots);
+        };
+    }
+
+    private static List<Expression> flatten(Expression expression, Class<? extends Expression> kind,
+                                            List<Expression> operands) {
+        switch (expression) {
+            case And(var left, var right) when kind == And.class -> {
+                flatten(left, kind, operands);
+                flatten(right, kind, operands);
+            }
+            case Or(var left, var right) when kind == Or.class -> {
+                flatten(left, kind, operands);
+                flatten(right, kind, operands);
+            }
+            default -> operands.add(expression);
+        }
+        return operands;
+    }
+
+    private static Junction junction(boolean isOr, List<Expression> operands, VariableSlots<Variable> slots) {
+        return new Junction(isOr, operands.stream().map(operand -> new Operand(plan(operand, slots))).toArray(Operand[]::new));
+    }
+
+    private static Plan plan(RecordDesignPattern_09_VisitorPattern.Expression expression,
+                             VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> slots) {
+        return switch (expression) {
+            case RecordDesignPattern_09_VisitorPattern.Value value ->
+                    new ConstantPlan(value == RecordDesignPattern_09_VisitorPattern.Value.TRUE);
+            case RecordDesignPattern_09_VisitorPattern.Variable variable ->
+                    new VariablePlan(slots.slotOf(variable), variable.name());
+            case RecordDesignPattern_09_VisitorPattern.Not(var unnegated) -> new NotPlan(plan(unnegated, slots));
+            case RecordDesignPattern_09_VisitorPattern.Brackets(var withoutBrackets) -> plan(withoutBrackets, slots);
+            case RecordDesignPattern_09_VisitorPattern.And and ->
+                    visitorJunction(false, flatten(and, RecordDesignPattern_09_VisitorPattern.And.class,
+                            new ArrayList<>()), slots);
+            case RecordDesignPattern_09_VisitorPattern.Or or ->
+                    visitorJunction(true, flatten(or, RecordDesignPattern_09_VisitorPattern.Or.class,
+                            new ArrayList<>()), slots);
+        };
+    }
+
+    // brackets only group so chains are also flattened through them
+    private static List<RecordDesignPattern_09_VisitorPattern.Expression> flatten(
+            RecordDesignPattern_09_VisitorPattern.Expression expression,
+            Class<? extends RecordDesignPattern_09_VisitorPattern.Expression> kind,
+            List<RecordDesignPattern_09_VisitorPattern.Expression> operands) {
+        switch (expression) {
+            case RecordDesignPattern_09_VisitorPattern.And(var left, var right)
+                    when kind == RecordDesignPattern_09_VisitorPattern.And.class -> {
+                flatten(left, kind, operands);
+                flatten(right, kind, operands);
+            }
+            case RecordDesignPattern_09_VisitorPattern.Or(var left, var right)
+                    when kind == RecordDesignPattern_09_VisitorPattern.Or.class -> {
+                flatten(left, kind, operands);
+                flatten(right, kind, operands);
+            }
+            case RecordDesignPattern_09_VisitorPattern.Brackets(var withoutBrackets) ->
+                    flatten(withoutBrackets, kind, operands);
+            default -> operands.add(expression);
+        }
+        return operands;
+    }
+
+    private static Junction visitorJunction(boolean isOr, List<RecordDesignPattern_09_VisitorPattern.Expression> operands,
+                                            VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> slots) {
+        return new Junction(isOr, operands.stream().map(operand -> new Operand(plan(operand, slots))).toArray(Operand[]::new));
+    }
+
+    public boolean evaluate(Assignment assignment) {
+        evaluations++;
+        boolean result = evaluate(plan, assignment, evaluations % configuration.samplingInterval() == 0);
+        if (evaluations % configuration.reorderInterval() == 0) {
+            reorder(plan);
+        }
+        return result;
+    }
+
+    // only for evaluators of RecordDesignPattern_08_Evaluate expressions
+    public boolean evaluate(Map<Variable, Value> values) {
+        if (slots == null) {
+            throw new IllegalStateException("Evaluators of RecordDesignPattern_09_VisitorPattern expressions "
+                    + "only take assignments of their slots");
+        }
+        return evaluate(RecordDesignPattern_13_VariableSlots.assignment(values, TRUE, slots));
+    }
+
+    private static boolean evaluate(Plan plan, Assignment assignment, boolean profile) {
+        return switch (plan) {
+            case ConstantPlan(var value) -> value;
+            case VariablePlan(var slot, var name) -> assignment.get(slot);
+            case NotPlan(var unnegated) -> !evaluate(unnegated, assignment, profile);
+            case Junction(var isOr, var operands) -> {
+                for (Operand operand : operands) {
+                    boolean result;
+                    if (profile) {
+                        long start = System.nanoTime();
+                        result = evaluate(operand.plan, assignment, true);
+                        operand.nanos += System.nanoTime() - start;
+                        operand.evaluations++;
+                        operand.decisions += (result == isOr) ? 1 : 0;
+                    } else {
+                        result = evaluate(operand.plan, assignment, false);
+                    }
+                    if (result == isOr) {
+                        yield isOr;
+                    }
+                }
+                yield !isOr;
+            }
+        };
+    }
+
+    private static void reorder(Plan plan) {
+        switch (plan) {
+            case NotPlan(var unnegated) -> reorder(unnegated);
+            case Junction(var isOr, var operands) -> {
+                Arrays.sort(operands, Comparator.comparingDouble(Operand::costPerDecision));
+                for (Operand operand : operands) {
+                    operand.evaluations >>>= 1;
+                    operand.decisions >>>= 1;
+                    operand.nanos >>>= 1;
+                    reorder(operand.plan);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    public String plan() {
+        StringBuilder out = new StringBuilder();
+        render(plan, false, out);
+        return out.toString();
+    }
+
+    private static void render(Plan plan, boolean brackets, StringBuilder out) {
+        switch (plan) {
+            case ConstantPlan(var value) -> out.append(value ? "TRUE" : "FALSE");
+            case VariablePlan(var slot, var name) -> out.append(name);
+            case NotPlan(var unnegated) -> {
+                out.append('!');
+                render(unnegated, true, out);
+            }
+            case Junction(var isOr, var operands) -> {
+                out.append(brackets ? "(" : "");
+                for (int i = 0; i < operands.length; i++) {
+                    out.append((i == 0) ? "" : isOr ? " || " : " && ");
+                    render(operands[i].plan, !isOr && operands[i].plan instanceof Junction junction && junction.isOr(), out);
+                }
+                out.append(brackets ? ")" : "");
+            }
+        }
+    }
+
+    /*
+    Output (the order of operands which rarely decide depends on measured times and varies):
+    before: (A || B || C || D || E || F) && X && !Y
+    after:  X && !Y && (F || B || E || C || D || A)
+    mismatches: 0
+    (FALSE && !B || !(C && D)) && TRUE
+    (!(D && C) || FALSE && !B) && TRUE
+    A && B && C
+    C && B && A
+     */
+    public static void main(String[] args) {
+        List<Variable> variables = new ArrayList<>();
+        for (String name : List.of("A", "B", "C", "D", "E", "F", "X", "Y")) {
+            variables.add(new Variable(name));
+        }
+        Variable A = variables.get(0), B = variables.get(1), C = variables.get(2), D = variables.get(3),
+                E = variables.get(4), F = variables.get(5), X = variables.get(6), Y = variables.get(7);
+
+        // X is almost always false and Y almost always true so both are cheap and decisive,
+        // while the wide Or is expensive and F is the only operand in it which is often true
+        Expression expression = new And(new And(new Or(new Or(new Or(A, B), new Or(C, D)), new Or(E, F)), X), new Not(Y));
+        VariableSlots<Variable> slots = new VariableSlots<>();
+        RecordDesignPattern_20_AdaptiveEvaluator evaluator = of(expression, slots, new Configuration(4, 1000));
+        System.out.println("before: " + evaluator.plan());
+
+        Random random = new Random(42);
+        int mismatches = 0;
+        for (int i = 0; i < 100_000; i++) {
+            Map<Variable, Value> values = new HashMap<>();
+            for (Variable variable : List.of(A, B, C, D, E)) {
+                values.put(variable, (random.nextInt(100) == 0) ? TRUE : FALSE);
+            }
+            values.put(F, random.nextBoolean() ? TRUE : FALSE);
+            values.put(X, (random.nextInt(20) == 0) ? TRUE : FALSE);
+            values.put(Y, (random.nextInt(20) == 0) ? FALSE : TRUE);
+            if (evaluator.evaluate(values) != RecordDesignPattern_08_Evaluate.evaluate(expression, values)) {
+                mismatches++;
+            }
+        }
+        System.out.println("after:  " + evaluator.plan());
+        System.out.println("mismatches: " + mismatches);
+
+        // the visitor version of "(FALSE && !B || !(C && D)) && TRUE" where FALSE is always decisive
+        RecordDesignPattern_09_VisitorPattern.Variable b = new RecordDesignPattern_09_VisitorPattern.Variable("B");
+        RecordDesignPattern_09_VisitorPattern.Variable c = new RecordDesignPattern_09_VisitorPattern.Variable("C");
+        RecordDesignPattern_09_VisitorPattern.Variable d = new RecordDesignPattern_09_VisitorPattern.Variable("D");
+        VariableSlots<RecordDesignPattern_09_VisitorPattern.Variable> visitorSlots = new VariableSlots<>();
+        RecordDesignPattern_20_AdaptiveEvaluator visitorEvaluator = of(new RecordDesignPattern_09_VisitorPattern.And(
+                new RecordDesignPattern_09_VisitorPattern.Or(
+                        new RecordDesignPattern_09_VisitorPattern.And(
+                                RecordDesignPattern_09_VisitorPattern.Value.FALSE,
+                                new RecordDesignPattern_09_VisitorPattern.Not(b)),
+                        new RecordDesignPattern_09_VisitorPattern.Not(
+                                new RecordDesignPattern_09_VisitorPattern.And(c, d))),
+                RecordDesignPattern_09_VisitorPattern.Value.TRUE), visitorSlots, new Configuration(1, 100));
+        System.out.println(visitorEvaluator.plan());
+        for (long bits = 0; bits < 1000; bits++) {
+            visitorEvaluator.evaluate(new LongAssignment(bits));
+        }
+        System.out.println(visitorEvaluator.plan());
+
+        // the chain "(a && b) && c" becomes one junction so c which is mostly false can move to the front
+        RecordDesignPattern_09_VisitorPattern.Variable a = new RecordDesignPattern_09_VisitorPattern.Variable("A");
+        RecordDesignPattern_20_AdaptiveEvaluator chainEvaluator = of(new RecordDesignPattern_09_VisitorPattern.And(
+                new RecordDesignPattern_09_VisitorPattern.Brackets(new RecordDesignPattern_09_VisitorPattern.And(a, b)),
+                c), visitorSlots, new Configuration(1, 100));
+        System.out.println(chainEvaluator.plan());
+        int slotOfC = visitorSlots.slotOf(c);
+        for (int i = 0; i < 1000; i++) {
+            long bits = ~0L;
+            if (random.nextInt(10) != 0) {
+                bits &= ~(1L << slotOfC);
+            }
+            chainEvaluator.evaluate(new LongAssignment(bits));
+        }
+        System.out.println(chainEvaluator.plan());
+    }
+}
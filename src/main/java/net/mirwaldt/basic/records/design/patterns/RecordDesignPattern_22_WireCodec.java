@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Brackets;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._0;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BitValue._1;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue.TRUE;
+
+/*
+ * A compact binary encoding of RecordDesignPattern_10_ListsAndGenerics expressions in pre-order:
+ * every node is a one-byte tag, And/Or are followed by the varint size of their tail and then all operands.
+ * The first occurrence of a variable name in a stream is written as NEW_VARIABLE with the UTF-8 name,
+ * every later occurrence as VARIABLE with the varint index of the name in the dictionary.
+ * Encoder and Decoder only hold one buffer and the dictionary so streams of any size can be processed.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_22_WireCodec {
+    static final byte BOOL_TRUE = 0, BOOL_FALSE = 1, BIT_1 = 2, BIT_0 = 3,
+            NEW_VARIABLE = 4, VARIABLE = 5, NOT = 6, BRACKETS = 7, AND = 8, OR = 9;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    static final int MAX_NAME_BYTES = 1 << 16; // so a corrupt length cannot allocate gigabytes
+    static final int MAX_NESTING = 1000; // so a corrupt stream cannot overflow the stack
+
+    // a non-blocking channel may read or write nothing which would make the buffers spin
+    private static void requireBlocking(Channel channel) {
+        if (channel instanceof SelectableChannel selectable && !selectable.isBlocking()) {
+            throw new IllegalArgumentException("Non-blocking channels are not supported");
+        }
+    }
+
+    static final class Encoder implements AutoCloseable {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        Encoder(WritableByteChannel channel) {
+            requireBlocking(channel);
+            this.channel = channel;
+        }
+
+        public <V extends Value<V>> void write(Expression<V> expression) throws IOException {
+            switch (expression) {
+                case Variable<V>(var name) -> {
+                    Integer index = dictionary.get(name);
+                    if (index == null) {
+                        // checked before the dictionary and the buffer change so the stream stays consistent
+                        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                        if (MAX_NAME_BYTES < bytes.length) {
+                            throw new IllegalArgumentException("Variable name longer than " + MAX_NAME_BYTES + " bytes");
+                        }
+                        dictionary.put(name, dictionary.size());
+                        writeTag(NEW_VARIABLE);
+                        writeName(bytes);
+                    } else {
+                        writeTag(VARIABLE);
+                        writeVarint(index);
+                    }
+                }
+                case Not<V>(var unnegated) -> {
+                    writeTag(NOT);
+                    write(unnegated);
+                }
+                case Brackets<V>(var withoutBrackets) -> {
+                    writeTag(BRACKETS);
+                    write(withoutBrackets);
+                }
+                case And<V>(var first, var second, var tail) -> writeOperands(AND, first, second, tail);
+                case Or<V>(var first, var second, var tail) -> writeOperands(OR, first, second, tail);
+                case BoolValue boolValue -> writeTag((boolValue == TRUE) ? BOOL_TRUE : BOOL_FALSE);
+                case BitValue bitValue -> writeTag((bitValue == _1) ? BIT_1 : BIT_0);
+            }
+        }
+
+        private <V extends Value<V>> void writeOperands(byte tag, Expression<V> first, Expression<V> second,
+                                                        List<Expression<V>> tail) throws IOException {
+            writeTag(tag);
+            writeVarint(tail.size());
+            write(first);
+            write(second);
+            for (Expression<V> operand : tail) {
+                write(operand);
+            }
+        }
+
+        private void writeTag(byte tag) throws IOException {
+            ensure(1);
+            buffer.put(tag);
+        }
+
+        private void writeVarint(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void writeName(byte[] bytes) throws IOException {
+            writeVarint(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    static final class Decoder implements AutoCloseable {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private final List<Variable<?>> dictionary = new ArrayList<>();
+        private int nesting;
+
+        Decoder(ReadableByteChannel channel) {
+            requireBlocking(channel);
+            this.channel = channel;
+        }
+
+        // returns null at the end of the stream; the caller must know whether it holds BoolValue or BitValue rules
+        public <V extends Value<V>> Expression<V> read() throws IOException {
+            nesting = 0;
+            return fill(1) ? readExpression() : null;
+        }
+
+        private <V extends Value<V>> Expression<V> readOperand() throws IOException {
+            if (MAX_NESTING < ++nesting) {
+                throw new StreamCorruptedException("Nesting deeper than " + MAX_NESTING);
+            }
+            Expression<V> operand = readExpression();
+            nesting--;
+            return operand;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V extends Value<V>> Expression<V> readExpression() throws IOException {
+            require(1);
+            byte tag = buffer.get();
+            return switch (tag) {
+                case BOOL_TRUE -> (Expression<V>) (Expression<?>) TRUE;
+                case BOOL_FALSE -> (Expression<V>) (Expression<?>) FALSE;
+                case BIT_1 -> (Expression<V>) (Expression<?>) _1;
+                case BIT_0 -> (Expression<V>) (Expression<?>) _0;
+                case NEW_VARIABLE -> {
+                    Variable<V> variable = new Variable<>(readName());
+                    dictionary.add(variable);
+                    yield variable;
+                }
+                case VARIABLE -> {
+                    int index = readVarint();
+                    if (dictionary.size() <= index) {
+                        throw new StreamCorruptedException("Unknown variable index " + index);
+                    }
+                    yield (Variable<V>) dictionary.get(index);
+                }
+                case NOT -> new Not<V>(readOperand());
+                case BRACKETS -> new Brackets<V>(readOperand());
+                case AND, OR -> {
+                    int tailSize = readVarint();
+                    Expression<V> first = readOperand();
+                    Expression<V> second = readOperand();
+                    List<Expression<V>> tail = new ArrayList<>(Math.min(tailSize, 1024));
+                    for (int i = 0; i < tailSize; i++) {
+                        tail.add(readOperand());
+                    }
+                    yield (tag == AND) ? new And<>(first, second, tail) : new Or<>(first, second, tail);
+                }
+                default -> throw new StreamCorruptedException("Unknown tag " + tag);
+            };
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                require(1);
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (0 <= b) {
+                    if (value < 0) { // the encoder only writes sizes and indices which are never negative
+                        throw new StreamCorruptedException("Negative varint " + value);
+                    }
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Varint too long");
+        }
+
+        private String readName() throws IOException {
+            int size = readVarint();
+            if (MAX_NAME_BYTES < size) {
+                throw new StreamCorruptedException("Variable name longer than " + MAX_NAME_BYTES + " bytes");
+            }
+            byte[] bytes = new byte[size];
+            for (int offset = 0; offset < bytes.length; ) {
+                require(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, length);
+                offset += length;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (!fill(bytes)) {
+                throw new EOFException("Stream ends inside an expression");
+            }
+        }
+
+        private boolean fill(int bytes) throws IOException {
+            while (buffer.remaining() < bytes) {
+                buffer.compact();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    return false;
+                } else if (read == 0) { // a blocking channel only returns 0 if there was no room in the buffer
+                    throw new IOException("The channel returned no bytes");
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /*
+    Output:
+    text: 4200000 bytes, binary: 2200004 bytes
+    100000 expressions decoded, all equal: true
+    (A && 1 && !B || !(C && D) || 0) && 1
+    (A && TRUE && !B || !(C && D) || FALSE) && TRUE
+    Negative varint -1
+    Nesting deeper than 1000
+     */
+    public static void main(String[] args) throws IOException {
+        Variable<BitValue> A = new Variable<>("A");
+        Variable<BitValue> B = new Variable<>("B");
+        Variable<BitValue> C = new Variable<>("C");
+        Variable<BitValue> D = new Variable<>("D");
+        Expression<BitValue> bitExpression =
+                new And<>(new Or<>(new And<>(A, _1, new Not<>(B)), new Not<>(new And<>(C, D)), _0), _1);
+        Variable<BoolValue> a = new Variable<>("A");
+        Variable<BoolValue> b = new Variable<>("B");
+        Variable<BoolValue> c = new Variable<>("C");
+        Variable<BoolValue> d = new Variable<>("D");
+        Expression<BoolValue> booleanExpression = RecordDesignPattern_10_ListsAndGenerics.withBrackets(
+                new And<>(new Or<>(new And<>(a, TRUE, new Not<>(b)), new Not<>(new And<>(c, d)), FALSE), TRUE), null);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long textBytes = 0;
+        try (Encoder encoder = new Encoder(Channels.newChannel(bytes))) {
+            for (int i = 0; i < 50_000; i++) {
+                encoder.write(bitExpression);
+                encoder.write(booleanExpression);
+                textBytes += RecordDesignPattern_15_StreamingRenderer.toString(bitExpression).length()
+                        + RecordDesignPattern_15_StreamingRenderer.toString(booleanExpression).length();
+            }
+        }
+        System.out.println("text: " + textBytes + " bytes, binary: " + bytes.size() + " bytes");
+
+        try (Decoder decoder = new Decoder(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())))) {
+            int count = 0;
+            boolean allEqual = true;
+            Expression<BitValue> lastBits = null;
+            Expression<BoolValue> lastBooleans = null;
+            for (Expression<BitValue> bits; (bits = decoder.read()) != null; count += 2) {
+                lastBits = bits;
+                lastBooleans = decoder.read();
+                allEqual &= bits.equals(bitExpression) && lastBooleans.equals(booleanExpression);
+            }
+            System.out.println(count + " expressions decoded, all equal: " + allEqual);
+            System.out.println(RecordDesignPattern_15_StreamingRenderer.toString(lastBits));
+            System.out.println(RecordDesignPattern_15_StreamingRenderer.toString(lastBooleans));
+        }
+
+        // an And whose tail size is a negative varint
+        byte[] corrupt = {AND, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        try (Decoder decoder = new Decoder(Channels.newChannel(new ByteArrayInputStream(corrupt)))) {
+            decoder.read();
+        } catch (StreamCorruptedException e) {
+            System.out.println(e.getMessage());
+        }
+
+        // a few MB of NOT tags
+        byte[] nots = new byte[4_000_000];
+        Arrays.fill(nots, NOT);
+        try (Decoder decoder = new Decoder(Channels.newChannel(new ByteArrayInputStream(nots)))) {
+            decoder.read();
+        } catch (StreamCorruptedException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Brackets;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.ArrayAssignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.Assignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.VariableSlots;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue.TRUE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.evaluate;
+
+/*
+ * An arena stores a RecordDesignPattern_10_ListsAndGenerics expression as struct-of-arrays instead of one object per node:
+ * node i is one int with its kind in the lowest three bits and the variable slot above them, plus the index of its parent.
+ * Nodes are appended in post-order so every subtree is a contiguous range which ends with its root
+ * and the only child of Not and Brackets is always the node right before it.
+ * The evaluator therefore needs no recursion, no pointer chasing and no scratch array: it walks from left to right,
+ * carries the value of the last node and jumps to the parent as soon as an operand decides an And or an Or.
+ * An And or Or which is reached normally was not decided by any operand and is TRUE or FALSE respectively.
+ * The arrays are IntBuffers, either on the heap or off-heap in direct memory which the garbage collector never scans.
+ * (MemorySegment is only a preview API in Java 21.)
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_23_Arena {
+    static final int FALSE_NODE = 0, TRUE_NODE = 1, VARIABLE_NODE = 2, NOT_NODE = 3, BRACKETS_NODE = 4,
+            AND_NODE = 5, OR_NODE = 6;
+    static final int KIND_BITS = 3, KIND_MASK = (1 << KIND_BITS) - 1;
+
+    static final class Arena<V extends Value<V>> {
+        private final IntBuffer nodes;
+        private final IntBuffer parents;
+        private final VariableSlots<Variable<V>> slots;
+        private int size;
+        private V constant; // any constant of the expression to restore TRUE and FALSE, null if there is none
+
+        private Arena(int size, VariableSlots<Variable<V>> slots, boolean offHeap) {
+            this.nodes = allocate(size, offHeap);
+            this.parents = allocate(size, offHeap);
+            this.slots = slots;
+        }
+
+        public static <V extends Value<V>> Arena<V> of(Expression<V> expression, VariableSlots<Variable<V>> slots,
+                                                       boolean offHeap) {
+            Arena<V> arena = new Arena<>(count(expression), slots, offHeap);
+            arena.parents.put(arena.append(expression), -1);
+            return arena;
+        }
+
+        private static <V extends Value<V>> int count(Expression<V> expression) {
+            return switch (expression) {
+                case Value<V> value -> 1;
+                case Variable<V> variable -> 1;
+                case Not<V>(var unnegated) -> 1 + count(unnegated);
+                case Brackets<V>(var withoutBrackets) -> 1 + count(withoutBrackets);
+                case And<V>(var first, var second, var tail) -> 1 + count(first, second, tail);
+                case Or<V>(var first, var second, var tail) -> 1 + count(first, second, tail);
+            };
+        }
+
+        private static <V extends Value<V>> int count(Expression<V> first, Expression<V> second,
+                                                      List<Expression<V>> tail) {
+            int count = count(first) + count(second);
+            for (Expression<V> operand : tail) {
+                count += count(operand);
+            }
+            return count;
+        }
+
+        private int append(Expression<V> expression) {
+            return switch (expression) {
+                case Value<V> value -> {
+                    constant = value.getTrue();
+                    yield add((value == value.getTrue()) ? TRUE_NODE : FALSE_NODE);
+                }
+                case Variable<V> variable -> add(VARIABLE_NODE | (slots.slotOf(variable) << KIND_BITS));
+                case Not<V>(var unnegated) -> adopt(append(unnegated), add(NOT_NODE));
+                case Brackets<V>(var withoutBrackets) -> adopt(append(withoutBrackets), add(BRACKETS_NODE));
+                case And<V>(var first, var second, var tail) -> append(AND_NODE, first, second, tail);
+                case Or<V>(var first, var second, var tail) -> append(OR_NODE, first, second, tail);
+            };
+        }
+
+        private int append(int kind, Expression<V> first, Expression<V> second, List<Expression<V>> tail) {
+            int[] operands = new int[2 + tail.size()];
+            operands[0] = append(first);
+            operands[1] = append(second);
+            for (int i = 0; i < tail.size(); i++) {
+                operands[2 + i] = append(tail.get(i));
+            }
+            int parent = add(kind);
+            for (int operand : operands) {
+                adopt(operand, parent);
+            }
+            return parent;
+        }
+
+        private int add(int node) {
+            nodes.put(size, node);
+            return size++;
+        }
+
+        private int adopt(int child, int parent) {
+            parents.put(child, parent);
+            return parent;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean evaluate(Assignment assignment) {
+            boolean value = false;
+            for (int i = 0; i < size; i++) {
+                int node = nodes.get(i);
+                value = switch (node & KIND_MASK) {
+                    case FALSE_NODE, OR_NODE -> false;
+                    case TRUE_NODE, AND_NODE -> true;
+                    case VARIABLE_NODE -> assignment.get(node >>> KIND_BITS);
+                    case NOT_NODE -> !value;
+                    default -> value; // Brackets
+                };
+                // skips the remaining operands: the parent is the last node of their range
+                for (int parent = parents.get(i); 0 <= parent && decides(nodes.get(parent), value); ) {
+                    i = parent;
+                    parent = parents.get(i);
+                }
+            }
+            return value;
+        }
+
+        private static boolean decides(int parent, boolean value) {
+            return (parent & KIND_MASK) == (value ? OR_NODE : AND_NODE);
+        }
+
+        @SuppressWarnings("unchecked")
+        public Expression<V> toExpression() {
+            int[] operandCounts = new int[size];
+            for (int i = 0; i < size - 1; i++) {
+                operandCounts[parents.get(i)]++;
+            }
+            // in post-order the operands of a node are the topmost expressions on the stack
+            Expression<V>[] stack = (Expression<V>[]) new Expression<?>[size];
+            int top = 0;
+            for (int i = 0; i < size; i++) {
+                int node = nodes.get(i);
+                Expression<V> expression = switch (node & KIND_MASK) {
+                    case FALSE_NODE -> constant.getFalse();
+                    case TRUE_NODE -> constant.getTrue();
+                    case VARIABLE_NODE -> slots.variable(node >>> KIND_BITS);
+                    case NOT_NODE -> new Not<>(stack[--top]);
+                    case BRACKETS_NODE -> new Brackets<>(stack[--top]);
+                    default -> {
+                        top -= operandCounts[i];
+                        List<Expression<V>> tail = Arrays.asList(stack).subList(top + 2, top + operandCounts[i]);
+                        yield ((node & KIND_MASK) == AND_NODE)
+                                ? new And<>(stack[top], stack[top + 1], tail)
+                                : new Or<>(stack[top], stack[top + 1], tail);
+                    }
+                };
+                stack[top++] = expression;
+            }
+            return stack[0];
+        }
+
+        // the two int arrays without the constant overhead of the buffer objects
+        public long footprint() {
+            return 2L * 4L * size;
+        }
+
+        private static IntBuffer allocate(int ints, boolean offHeap) {
+            return offHeap
+                    ? ByteBuffer.allocateDirect(4 * ints).order(ByteOrder.nativeOrder()).asIntBuffer()
+                    : IntBuffer.allocate(ints);
+        }
+    }
+
+    /*
+     * Estimates the shallow sizes of all distinct objects reachable from the expression like JOL would report them
+     * on a 64-bit JVM with compressed oops and class pointers: 12 bytes header, 4 bytes per reference, 8 bytes alignment.
+     * Enum constants, the empty list and the variable names are shared with the arena and not counted.
+     */
+    public static <V extends Value<V>> long estimateFootprint(Expression<V> expression) {
+        return estimateFootprint(expression, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static <V extends Value<V>> long estimateFootprint(Expression<V> expression, Set<Object> seen) {
+        if (!seen.add(expression)) {
+            return 0;
+        }
+        return switch (expression) {
+            case Value<V> value -> 0;
+            case Variable<V> variable -> align(12 + 4);
+            case Not<V>(var unnegated) -> align(12 + 4) + estimateFootprint(unnegated, seen);
+            case Brackets<V>(var withoutBrackets) -> align(12 + 4) + estimateFootprint(withoutBrackets, seen);
+            case And<V>(var first, var second, var tail) -> estimateFootprint(first, second, tail, seen);
+            case Or<V>(var first, var second, var tail) -> estimateFootprint(first, second, tail, seen);
+        };
+    }
+
+    private static <V extends Value<V>> long estimateFootprint(Expression<V> first, Expression<V> second,
+                                                               List<Expression<V>> tail, Set<Object> seen) {
+        long bytes = align(12 + 3 * 4);
+        if (!tail.isEmpty() && seen.add(tail)) {
+            bytes += (tail.size() <= 2)
+                    ? align(12 + 2 * 4) // List12
+                    : align(12 + 4 + 1) + align(16 + 4L * tail.size()); // ListN and its array
+        }
+        bytes += estimateFootprint(first, seen) + estimateFootprint(second, seen);
+        for (Expression<V> operand : tail) {
+            bytes += estimateFootprint(operand, seen);
+        }
+        return bytes;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    static Expression<BoolValue> randomExpression(Random random, List<Variable<BoolValue>> variables, int depth) {
+        int choice = random.nextInt(depth == 0 ? 2 : 16);
+        if (choice == 0) {
+            return random.nextInt(8) == 0
+                    ? (random.nextBoolean() ? TRUE : FALSE)
+                    : variables.get(random.nextInt(variables.size()));
+        } else if (choice == 1) {
+            return new Not<>(variables.get(random.nextInt(variables.size())));
+        } else if (choice == 2) {
+            return new Not<>(randomExpression(random, variables, depth - 1));
+        }
+        List<Expression<BoolValue>> tail = new ArrayList<>();
+        for (int i = random.nextInt(3); 0 < i; i--) {
+            tail.add(randomExpression(random, variables, depth - 1));
+        }
+        Expression<BoolValue> first = randomExpression(random, variables, depth - 1);
+        Expression<BoolValue> second = randomExpression(random, variables, depth - 1);
+        return (choice % 2 == 0) ? new And<>(first, second, tail) : new Or<>(first, second, tail);
+    }
+
+    /*
+    Output (the times vary):
+    nodes: 133103
+    records: 1867384 bytes, arena: 1064824 bytes
+    round trip equal: true
+    records: 125 ms, heap arena: 122 ms, off-heap arena: 111 ms, all equal: true
+     */
+    public static void main(String[] args) {
+        List<Variable<BoolValue>> variables = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            variables.add(new Variable<>("V" + i));
+        }
+        Expression<BoolValue> expression = randomExpression(new Random(42), variables, 12);
+
+        VariableSlots<Variable<BoolValue>> slots = new VariableSlots<>();
+        variables.forEach(slots::slotOf);
+        Arena<BoolValue> heapArena = Arena.of(expression, slots, false);
+        Arena<BoolValue> offHeapArena = Arena.of(expression, slots, true);
+        System.out.println("nodes: " + heapArena.size());
+        System.out.println("records: " + estimateFootprint(expression) + " bytes, arena: "
+                + heapArena.footprint() + " bytes");
+        System.out.println("round trip equal: " + heapArena.toExpression().equals(expression));
+
+        Random random = new Random(7);
+        List<boolean[]> assignments = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            boolean[] values = new boolean[variables.size()];
+            for (int slot = 0; slot < values.length; slot++) {
+                values[slot] = random.nextBoolean();
+            }
+            assignments.add(values);
+        }
+
+        boolean allEqual = true;
+        long recordNanos = 0, heapNanos = 0, offHeapNanos = 0;
+        for (int round = 0; round < 3; round++) { // the first rounds warm up
+            recordNanos = heapNanos = offHeapNanos = 0;
+            for (boolean[] values : assignments) {
+                Map<Variable<BoolValue>, Expression<BoolValue>> map = new HashMap<>();
+                for (int slot = 0; slot < values.length; slot++) {
+                    map.put(variables.get(slot), values[slot] ? TRUE : FALSE);
+                }
+                long start = System.nanoTime();
+                boolean byRecords = evaluate(expression, map) == TRUE;
+                long afterRecords = System.nanoTime();
+                boolean byHeapArena = heapArena.evaluate(new ArrayAssignment(values));
+                long afterHeapArena = System.nanoTime();
+                boolean byOffHeapArena = offHeapArena.evaluate(new ArrayAssignment(values));
+                long afterOffHeapArena = System.nanoTime();
+                recordNanos += afterRecords - start;
+                heapNanos += afterHeapArena - afterRecords;
+                offHeapNanos += afterOffHeapArena - afterHeapArena;
+                allEqual &= byRecords == byHeapArena && byRecords == byOffHeapArena;
+            }
+        }
+        System.out.println("records: " + recordNanos / 1_000_000 + " ms, heap arena: " + heapNanos / 1_000_000
+                + " ms, off-heap arena: " + offHeapNanos / 1_000_000 + " ms, all equal: " + allEqual);
+    }
+}
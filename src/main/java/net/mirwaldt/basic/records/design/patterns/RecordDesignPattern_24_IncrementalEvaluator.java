@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_14_HashConsing.Factory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.evaluate;
+
+/*
+ * Keeps the last value of every subexpression of many rules and the parents of every node.
+ * When variables change, only their ancestors are recomputed in the order of their height by a bucket queue
+ * so every node is recomputed at most once after all its operands are final,
+ * and the propagation stops at every node whose value does not change.
+ * Subexpressions are shared by identity so rules which were hash-consed by RecordDesignPattern_14_HashConsing
+ * share all their common nodes. Listeners are told about every rule whose value flipped after the whole update.
+ * Not thread-safe: updates must be serialized by the caller.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_24_IncrementalEvaluator {
+    interface Listener {
+        void flipped(Expression rule, boolean value);
+    }
+
+    private static final class Node {
+        private final Expression expression;
+        private final Node left;
+        private final Node right;
+        private final int height;
+        private final List<Node> parents = new ArrayList<>(2);
+        private List<Expression> rules; // null if no rule is rooted here
+        private boolean value;
+        private boolean queued;
+
+        Node(Expression expression, Node left, Node right) {
+            this.expression = expression;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max((left == null) ? 0 : left.height, (right == null) ? 0 : right.height);
+        }
+
+        boolean compute() {
+            return switch (expression) {
+                case Value value -> value == TRUE;
+                case Variable variable -> value;
+                case Not not -> !left.value;
+                case And and -> left.value && right.value;
+                case Or or -> left.value || right.value;
+            };
+        }
+    }
+
+    private final Map<Expression, Node> nodes = new IdentityHashMap<>();
+    private final Map<Variable, Node> variables = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private final List<List<Node>> queuedByHeight = new ArrayList<>(); // a bucket queue since heights are small
+    private long recomputations;
+
+    public RecordDesignPattern_24_IncrementalEvaluator(List<Expression> rules, Map<Variable, Value> values) {
+        for (Expression rule : rules) {
+            Node root = node(rule, values);
+            if (root.rules == null) {
+                root.rules = new ArrayList<>(1);
+            }
+            root.rules.add(rule);
+        }
+    }
+
+    private Node node(Expression expression, Map<Variable, Value> values) {
+        Node node = nodes.get(expression);
+        if (node == null) {
+            node = switch (expression) {
+                case Variable variable -> variables.computeIfAbsent(variable, v -> {
+                    Node variableNode = new Node(v, null, null);
+                    variableNode.value = Objects.requireNonNull(values.get(v), () -> "No value for " + v) == TRUE;
+                    return variableNode;
+                });
+                case Value value -> new Node(value, null, null);
+                case Not(var unnegated) -> adopt(new Node(expression, node(unnegated, values), null));
+                case And(var left, var right) ->
+                        adopt(new Node(expression, node(left, values), node(right, values)));
+                case Or(var left, var right) ->
+                        adopt(new Node(expression, node(left, values), node(right, values)));
+            };
+            node.value = node.compute();
+            nodes.put(expression, node);
+        }
+        return node;
+    }
+
+    private static Node adopt(Node parent) {
+        parent.left.parents.add(parent);
+        if (parent.right != null && parent.right != parent.left) {
+            parent.right.parents.add(parent);
+        }
+        return parent;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean valueOf(Expression rule) {
+        Node node = nodes.get(rule);
+        if (node == null || node.rules == null) {
+            throw new IllegalArgumentException("Unknown rule " + rule);
+        }
+        return node.value;
+    }
+
+    // the number of recomputed nodes since the creation
+    public long recomputations() {
+        return recomputations;
+    }
+
+    public void update(Variable variable, Value value) {
+        update(Map.of(variable, value));
+    }
+
+    public void update(Map<Variable, Value> values) {
+        List<Node> flipped = new ArrayList<>();
+        for (Map.Entry<Variable, Value> entry : values.entrySet()) {
+            Node node = variables.get(entry.getKey());
+            if (node != null && node.value != (entry.getValue() == TRUE)) {
+                node.value = !node.value;
+                changed(node, flipped);
+            }
+        }
+        // parents are higher than their operands so they are only queued into buckets which come later
+        for (int height = 0; height < queuedByHeight.size(); height++) {
+            List<Node> queued = queuedByHeight.get(height);
+            for (Node node : queued) {
+                node.queued = false;
+                recomputations++;
+                boolean value = node.compute();
+                if (node.value != value) {
+                    node.value = value;
+                    changed(node, flipped);
+                }
+            }
+            queued.clear();
+        }
+        for (Node node : flipped) {
+            for (Expression rule : node.rules) {
+                for (Listener listener : listeners) {
+                    listener.flipped(rule, node.value);
+                }
+            }
+        }
+    }
+
+    private void changed(Node node, List<Node> flipped) {
+        if (node.rules != null) {
+            flipped.add(node);
+        }
+        for (Node parent : node.parents) {
+            if (!parent.queued) {
+                parent.queued = true;
+                while (queuedByHeight.size() <= parent.height) {
+                    queuedByHeight.add(new ArrayList<>());
+                }
+                queuedByHeight.get(parent.height).add(parent);
+            }
+        }
+    }
+
+    /*
+    Output (the times vary):
+    rules: 5000, nodes: 96377
+    updates: 20000, flips: 435192, recomputed nodes per update: 766
+    mismatches after the updates: 0
+    incremental: 2226 ms, from scratch: 47940 ms, true rules: 2565
+     */
+    public static void main(String[] args) {
+        Factory factory = new Factory();
+        List<Variable> sensors = new ArrayList<>();
+        Map<Variable, Value> values = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            Variable sensor = factory.variable("S" + i);
+            sensors.add(sensor);
+            values.put(sensor, (i % 2 == 0) ? TRUE : FALSE);
+        }
+        Random random = new Random(42);
+        List<Expression> rules = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            rules.add(factory.intern(RecordDesignPattern_11_Compiler.randomExpression(random, sensors, 10)));
+        }
+
+        RecordDesignPattern_24_IncrementalEvaluator evaluator =
+                new RecordDesignPattern_24_IncrementalEvaluator(rules, values);
+        System.out.println("rules: " + rules.size() + ", nodes: " + evaluator.nodes.size());
+        long[] flips = new long[1];
+        evaluator.addListener((rule, value) -> flips[0]++);
+
+        int updates = 20_000;
+        List<Variable> changes = new ArrayList<>();
+        for (int i = 0; i < updates; i++) {
+            changes.add(sensors.get(random.nextInt(sensors.size())));
+        }
+        long start = System.nanoTime();
+        for (Variable sensor : changes) {
+            Value value = (values.get(sensor) == TRUE) ? FALSE : TRUE;
+            values.put(sensor, value);
+            evaluator.update(sensor, value);
+        }
+        long incrementalMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("updates: " + updates + ", flips: " + flips[0]
+                + ", recomputed nodes per update: " + evaluator.recomputations() / updates);
+
+        int mismatches = 0;
+        for (Expression rule : rules) {
+            if (evaluator.valueOf(rule) != evaluate(rule, values)) {
+                mismatches++;
+            }
+        }
+        System.out.println("mismatches after the updates: " + mismatches);
+
+        // the same stream evaluated from scratch, only for the first 1000 updates and extrapolated
+        start = System.nanoTime();
+        int trueRules = 0;
+        for (int i = 0; i < 1000; i++) {
+            Variable sensor = changes.get(i);
+            values.put(sensor, (values.get(sensor) == TRUE) ? FALSE : TRUE);
+            trueRules = 0;
+            for (Expression rule : rules) {
+                trueRules += evaluate(rule, values) ? 1 : 0;
+            }
+        }
+        long scratchMillis = (System.nanoTime() - start) / 1_000_000 * (updates / 1000);
+        System.out.println("incremental: " + incrementalMillis + " ms, from scratch: " + scratchMillis + " ms, "
+                + "true rules: " + trueRules);
+    }
+}
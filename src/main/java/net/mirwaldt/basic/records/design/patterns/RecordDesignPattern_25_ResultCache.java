@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+ * A size-bounded cache in front of RecordDesignPattern_08_Evaluate.evaluate() and RecordDesignPattern_10_ListsAndGenerics.evaluate().
+ * The key is the identity of the expression plus a bit set with the values of only the variables which it uses
+ * so assignments which only differ in other variables share the result.
+ * The used variables of every expression are cached the same way.
+ * Both caches are segmented LRU maps: every segment is an access-ordered LinkedHashMap behind its own lock.
+ * Results are computed outside the lock so two threads may compute the same missing result at the same time.
+ * Assignments which miss a used variable or assign a non-constant expression are evaluated without the cache.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_25_ResultCache {
+    private static final int SEGMENTS = 16;
+
+    record Statistics(long hits, long misses, long evictions, long bypasses) {
+        public double hitRate() {
+            return (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses);
+        }
+    }
+
+    static final class SegmentedLru<K, V> {
+        private final Segment<K, V>[] segments;
+
+        @SuppressWarnings("unchecked")
+        SegmentedLru(int maximumSize, LongAdder evictions) {
+            if (maximumSize < SEGMENTS) {
+                throw new IllegalArgumentException("The maximum size must be at least " + SEGMENTS + ": " + maximumSize);
+            }
+            this.segments = (Segment<K, V>[]) new Segment<?, ?>[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) { // the first segments take the remainder
+                segments[i] = new Segment<>(maximumSize / SEGMENTS + ((i < maximumSize % SEGMENTS) ? 1 : 0), evictions);
+            }
+        }
+
+        public V get(K key) {
+            Segment<K, V> segment = segmentOf(key);
+            segment.lock.lock();
+            try {
+                return segment.map.get(key);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        public void put(K key, V value) {
+            Segment<K, V> segment = segmentOf(key);
+            segment.lock.lock();
+            try {
+                segment.map.put(key, value);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+
+        private Segment<K, V> segmentOf(K key) {
+            int hash = key.hashCode();
+            return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+        }
+
+        private static final class Segment<K, V> {
+            private final ReentrantLock lock = new ReentrantLock();
+            private final LinkedHashMap<K, V> map;
+
+            Segment(int maximumSize, LongAdder evictions) {
+                this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                        if (maximumSize < size()) {
+                            evictions.increment();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+            }
+        }
+    }
+
+    // equal if the expression is the same instance and the used variables have the same values
+    private static final class Key {
+        private final Object expression;
+        private final long[] fingerprint;
+        private final int hash;
+
+        Key(Object expression, long[] fingerprint) {
+            this.expression = expression;
+            this.fingerprint = fingerprint;
+            this.hash = 31 * System.identityHashCode(expression) + Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.expression == expression && Arrays.equals(key.fingerprint, fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class ResultCache {
+        private final SegmentedLru<Key, Object> results;
+        private final SegmentedLru<Key, Object[]> usedVariables;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final LongAdder bypasses = new LongAdder();
+
+        ResultCache(int maximumSize) {
+            this.results = new SegmentedLru<>(maximumSize, evictions);
+            this.usedVariables = new SegmentedLru<>(maximumSize, new LongAdder());
+        }
+
+        public boolean evaluate(RecordDesignPattern_08_Evaluate.Expression expression,
+                                Map<RecordDesignPattern_08_Evaluate.Variable, RecordDesignPattern_08_Evaluate.Value> values) {
+            Object[] variables = variablesOf(expression, e -> usedVariables(e, new LinkedHashSet<>()).toArray());
+            long[] fingerprint = new long[(variables.length + 63) >>> 6];
+            for (int i = 0; i < variables.length; i++) {
+                RecordDesignPattern_08_Evaluate.Value value = values.get(variables[i]);
+                if (value == null) {
+                    bypasses.increment();
+                    return RecordDesignPattern_08_Evaluate.evaluate(expression, values);
+                } else if (value == RecordDesignPattern_08_Evaluate.Value.TRUE) {
+                    fingerprint[i >>> 6] |= 1L << i;
+                }
+            }
+            return (Boolean) result(new Key(expression, fingerprint),
+                    () -> RecordDesignPattern_08_Evaluate.evaluate(expression, values));
+        }
+
+        @SuppressWarnings("unchecked")
+        public <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> V evaluate(
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression,
+                Map<RecordDesignPattern_10_ListsAndGenerics.Variable<V>, RecordDesignPattern_10_ListsAndGenerics.Expression<V>> values) {
+            Object[] variables = variablesOf(expression, e -> usedVariables(e, new LinkedHashSet<>()).toArray());
+            long[] fingerprint = new long[(variables.length + 63) >>> 6];
+            for (int i = 0; i < variables.length; i++) {
+                if (!(values.get(variables[i]) instanceof RecordDesignPattern_10_ListsAndGenerics.Value<?> value)) {
+                    bypasses.increment();
+                    return RecordDesignPattern_10_ListsAndGenerics.evaluate(expression, values);
+                } else if (value == value.getTrue()) {
+                    fingerprint[i >>> 6] |= 1L << i;
+                }
+            }
+            return (V) result(new Key(expression, fingerprint),
+                    () -> RecordDesignPattern_10_ListsAndGenerics.evaluate(expression, values));
+        }
+
+        private <E> Object[] variablesOf(E expression, Function<E, Object[]> collector) {
+            Key key = new Key(expression, null);
+            Object[] variables = usedVariables.get(key);
+            if (variables == null) {
+                variables = collector.apply(expression);
+                usedVariables.put(key, variables);
+            }
+            return variables;
+        }
+
+        private Object result(Key key, Supplier<Object> evaluation) {
+            Object result = results.get(key);
+            if (result == null) {
+                misses.increment();
+                result = evaluation.get();
+                results.put(key, result);
+            } else {
+                hits.increment();
+            }
+            return result;
+        }
+
+        public Statistics statistics() {
+            return new Statistics(hits.sum(), misses.sum(), evictions.sum(), bypasses.sum());
+        }
+    }
+
+    private static Set<Object> usedVariables(RecordDesignPattern_08_Evaluate.Expression expression, Set<Object> variables) {
+        switch (expression) {
+            case RecordDesignPattern_08_Evaluate.Value value -> {
+            }
+            case RecordDesignPattern_08_Evaluate.Variable variable -> variables.add(variable);
+            case RecordDesignPattern_08_Evaluate.Not(var unnegated) -> usedVariables(unnegated, variables);
+            case RecordDesignPattern_08_Evaluate.And(var left, var right) -> {
+                usedVariables(left, variables);
+                usedVariables(right, variables);
+            }
+            case RecordDesignPattern_08_Evaluate.Or(var left, var right) -> {
+                usedVariables(left, variables);
+                usedVariables(right, variables);
+            }
+        }
+        return variables;
+    }
+
+    private static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> Set<Object> usedVariables(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression, Set<Object> variables) {
+        switch (expression) {
+            case RecordDesignPattern_10_ListsAndGenerics.Value<V> value -> {
+            }
+            case RecordDesignPattern_10_ListsAndGenerics.Variable<V> variable -> variables.add(variable);
+            case RecordDesignPattern_10_ListsAndGenerics.Not<V>(var unnegated) -> usedVariables(unnegated, variables);
+            case RecordDesignPattern_10_ListsAndGenerics.Brackets<V>(var withoutBrackets) ->
+                    usedVariables(withoutBrackets, variables);
+            case RecordDesignPattern_10_ListsAndGenerics.And<V>(var first, var second, var tail) ->
+                    usedVariables(first, second, tail, variables);
+            case RecordDesignPattern_10_ListsAndGenerics.Or<V>(var first, var second, var tail) ->
+                    usedVariables(first, second, tail, variables);
+        }
+        return variables;
+    }
+
+    private static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> void usedVariables(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> first,
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> second,
+            List<RecordDesignPattern_10_ListsAndGenerics.Expression<V>> tail, Set<Object> variables) {
+        usedVariables(first, variables);
+        usedVariables(second, variables);
+        for (RecordDesignPattern_10_ListsAndGenerics.Expression<V> operand : tail) {
+            usedVariables(operand, variables);
+        }
+    }
+
+    /*
+    Output:
+    requests: 200000, mismatches: 0
+    Statistics[hits=305553, misses=94447, evictions=74447, bypasses=0], hit rate: 0.7638825
+    parallel requests: 200000, mismatches: 0
+     */
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+        List<RecordDesignPattern_08_Evaluate.Variable> variables08 = new ArrayList<>();
+        List<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>> variables10 = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            variables08.add(new RecordDesignPattern_08_Evaluate.Variable("V" + i));
+            variables10.add(new RecordDesignPattern_10_ListsAndGenerics.Variable<>("V" + i));
+        }
+        List<RecordDesignPattern_08_Evaluate.Expression> expressions08 = new ArrayList<>();
+        List<RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> expressions10 = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expressions08.add(RecordDesignPattern_11_Compiler.randomExpression(random, variables08, 6));
+            expressions10.add(RecordDesignPattern_23_Arena.randomExpression(random, variables10, 3));
+        }
+        List<Map<RecordDesignPattern_08_Evaluate.Variable, RecordDesignPattern_08_Evaluate.Value>> assignments08 =
+                new ArrayList<>();
+        List<Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>>> assignments10 = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Map<RecordDesignPattern_08_Evaluate.Variable, RecordDesignPattern_08_Evaluate.Value> values08 =
+                    new HashMap<>();
+            Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                    RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> values10 = new HashMap<>();
+            for (int j = 0; j < variables08.size(); j++) {
+                boolean value = random.nextBoolean();
+                values08.put(variables08.get(j), value
+                        ? RecordDesignPattern_08_Evaluate.Value.TRUE : RecordDesignPattern_08_Evaluate.Value.FALSE);
+                values10.put(variables10.get(j), value ? BoolValue.TRUE : BoolValue.FALSE);
+            }
+            assignments08.add(values08);
+            assignments10.add(values10);
+        }
+
+        ResultCache cache = new ResultCache(20_000);
+        int requests = 200_000;
+        int[] expressionIndices = random.ints(requests, 0, expressions08.size()).toArray();
+        int[] assignmentIndices = random.ints(requests, 0, assignments08.size()).toArray();
+        int mismatches = check(cache, expressions08, expressions10, assignments08, assignments10,
+                expressionIndices, assignmentIndices, 0, requests);
+        System.out.println("requests: " + requests + ", mismatches: " + mismatches);
+        System.out.println(cache.statistics() + ", hit rate: " + cache.statistics().hitRate());
+
+        ResultCache sharedCache = new ResultCache(20_000);
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int from = thread * requests / 4, to = (thread + 1) * requests / 4;
+                futures.add(executor.submit(() -> check(sharedCache, expressions08, expressions10,
+                        assignments08, assignments10, expressionIndices, assignmentIndices, from, to)));
+            }
+            int parallelMismatches = 0;
+            for (Future<Integer> future : futures) {
+                parallelMismatches += future.get();
+            }
+            System.out.println("parallel requests: " + requests + ", mismatches: " + parallelMismatches);
+        }
+    }
+
+    private static int check(ResultCache cache, List<RecordDesignPattern_08_Evaluate.Expression> expressions08,
+                             List<RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> expressions10,
+                             List<Map<RecordDesignPattern_08_Evaluate.Variable, RecordDesignPattern_08_Evaluate.Value>> assignments08,
+                             List<Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                                     RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>>> assignments10,
+                             int[] expressionIndices, int[] assignmentIndices, int from, int to) {
+        int mismatches = 0;
+        for (int i = from; i < to; i++) {
+            RecordDesignPattern_08_Evaluate.Expression expression08 = expressions08.get(expressionIndices[i]);
+            var values08 = assignments08.get(assignmentIndices[i]);
+            if (cache.evaluate(expression08, values08) != RecordDesignPattern_08_Evaluate.evaluate(expression08, values08)) {
+                mismatches++;
+            }
+            RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> expression10 = expressions10.get(expressionIndices[i]);
+            var values10 = assignments10.get(assignmentIndices[i]);
+            if (cache.evaluate(expression10, values10) != RecordDesignPattern_10_ListsAndGenerics.evaluate(expression10, values10)) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+}
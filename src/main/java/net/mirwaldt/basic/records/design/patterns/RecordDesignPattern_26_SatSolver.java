@@ -0,0 +1,653 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_27_TseitinCnf.ClauseSink;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_27_TseitinCnf.Encoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.evaluate;
+
+/*
+ * A CDCL satisfiability solver for RecordDesignPattern_08_Evaluate expressions.
+ * The expression is turned into clauses by the Tseitin transformation of RecordDesignPattern_27_TseitinCnf
+ * so the number of clauses is linear in the number of nodes. The solver is a ClauseSink which works on
+ * DIMACS literals (variable v is v, its negation is -v). It implements two watched literals per clause,
+ * first-UIP clause learning with non-chronological backjumping, minimization of learnt clauses,
+ * VSIDS variable activities in a binary heap, phase saving and restarts after a Luby sequence of conflicts.
+ * At restarts, the learnt clauses with the worse half of literal block distances ("glue") are deleted
+ * once there are too many of them.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_26_SatSolver {
+    sealed interface Result permits Satisfiable, Unsatisfiable {
+
+    }
+
+    record Satisfiable(Map<Variable, Value> model) implements Result {
+
+    }
+
+    enum Unsatisfiable implements Result {
+        UNSAT
+    }
+
+    public static Result solve(Expression expression) {
+        Solver solver = new Solver();
+        Encoder encoder = new Encoder(solver);
+        encoder.assertTrue(expression);
+        if (!solver.solve()) {
+            return Unsatisfiable.UNSAT;
+        }
+        Map<Variable, Value> model = new LinkedHashMap<>();
+        encoder.variables().forEach((variable, index) -> model.put((Variable) variable, solver.value(index) ? TRUE : FALSE));
+        return new Satisfiable(model);
+    }
+
+    // internally literal v is 2 * v and -v is 2 * v + 1 so the negation of a literal is literal ^ 1
+    static final class Solver implements ClauseSink {
+        private static final int UNASSIGNED = 0, POSITIVE = 1, NEGATIVE = -1;
+        private static final int NO_REASON = -1;
+        private static final double ACTIVITY_DECAY = 0.95;
+
+        private final List<int[]> clauses = new ArrayList<>(); // the first two literals are watched
+        private final IntVector glues = new IntVector(); // the LBD of learnt clauses, 0 for added clauses
+        private int learntClauses;
+        private double maximumLearntClauses;
+        private IntVector[] watches = new IntVector[0];
+        private int variables;
+        private int[] assignments = new int[1];
+        private int[] levels = new int[1];
+        private int[] reasons = new int[1];
+        private int[] phases = new int[1];
+        private boolean[] seen = new boolean[1];
+        private int[] levelStamps = new int[1];
+        private int stamp;
+        private double[] activities = new double[1];
+        private double activityIncrement = 1.0;
+        private final VariableHeap heap = new VariableHeap();
+
+        private int[] trail = new int[1];
+        private int trailSize;
+        private int propagationHead;
+        private final IntVector trailLimits = new IntVector();
+        private boolean unsatisfiable;
+        private long conflicts, decisions, propagations;
+
+        @Override
+        public int newVariable() {
+            int variable = ++variables;
+            if (assignments.length <= variable) {
+                int capacity = 2 * assignments.length;
+                assignments = Arrays.copyOf(assignments, capacity);
+                levels = Arrays.copyOf(levels, capacity);
+                reasons = Arrays.copyOf(reasons, capacity);
+                phases = Arrays.copyOf(phases, capacity);
+                seen = Arrays.copyOf(seen, capacity);
+                levelStamps = Arrays.copyOf(levelStamps, capacity);
+                activities = Arrays.copyOf(activities, capacity);
+                trail = Arrays.copyOf(trail, capacity);
+                watches = Arrays.copyOf(watches, 2 * capacity);
+            }
+            watches[2 * variable] = new IntVector();
+            watches[2 * variable + 1] = new IntVector();
+            phases[variable] = NEGATIVE;
+            heap.insert(variable);
+            return variable;
+        }
+
+        public int variables() {
+            return variables;
+        }
+
+        @Override
+        public void addClause(int... literals) {
+            cancelUntil(0);
+            if (unsatisfiable) {
+                return;
+            }
+            int[] codes = new int[literals.length];
+            for (int i = 0; i < literals.length; i++) {
+                int variable = Math.abs(literals[i]);
+                if (variable == 0 || variables < variable) {
+                    throw new IllegalArgumentException("Unknown variable " + literals[i]);
+                }
+                codes[i] = 2 * variable + ((literals[i] < 0) ? 1 : 0);
+            }
+            Arrays.sort(codes); // puts v and -v next to each other
+            int size = 0;
+            for (int i = 0; i < codes.length; i++) {
+                int code = codes[i];
+                if (0 < i && code == (codes[i - 1] ^ 1) || valueOf(code) == POSITIVE) {
+                    return; // a tautology or already satisfied
+                } else if ((0 < i && code == codes[i - 1]) || valueOf(code) == NEGATIVE) {
+                    continue;
+                }
+                codes[size++] = code;
+            }
+            if (size == 0) {
+                unsatisfiable = true;
+            } else if (size == 1) {
+                assign(codes[0], NO_REASON);
+                unsatisfiable = propagate() != NO_REASON;
+            } else {
+                attach(Arrays.copyOf(codes, size), 0);
+            }
+        }
+
+        public boolean solve() {
+            if (unsatisfiable || propagate() != NO_REASON) {
+                unsatisfiable = true;
+                return false;
+            }
+            maximumLearntClauses = Math.max(maximumLearntClauses, clauses.size() / 3.0);
+            for (int restart = 1; ; restart++) {
+                int status = search(100 * luby(restart));
+                if (status != UNASSIGNED) {
+                    return status == POSITIVE;
+                }
+                if (maximumLearntClauses < learntClauses) {
+                    reduceLearntClauses();
+                    maximumLearntClauses *= 1.1;
+                }
+            }
+        }
+
+        // the value of the variable in the model of the last successful solve()
+        public boolean value(int variable) {
+            return assignments[variable] == POSITIVE;
+        }
+
+        public long conflicts() {
+            return conflicts;
+        }
+
+        public long decisions() {
+            return decisions;
+        }
+
+        public long propagations() {
+            return propagations;
+        }
+
+        private int search(int maximumConflicts) {
+            IntVector learnt = new IntVector();
+            for (int conflictCount = 0; ; ) {
+                int conflict = propagate();
+                if (conflict != NO_REASON) {
+                    conflicts++;
+                    conflictCount++;
+                    if (decisionLevel() == 0) {
+                        unsatisfiable = true;
+                        return NEGATIVE;
+                    }
+                    int backjumpLevel = analyze(conflict, learnt);
+                    int glue = glueOf(learnt);
+                    cancelUntil(backjumpLevel);
+                    int[] clause = learnt.toArray();
+                    if (clause.length == 1) {
+                        assign(clause[0], NO_REASON);
+                    } else {
+                        learntClauses++;
+                        assign(clause[0], attach(clause, glue));
+                    }
+                    activityIncrement /= ACTIVITY_DECAY;
+                } else if (maximumConflicts <= conflictCount) {
+                    cancelUntil(0);
+                    return UNASSIGNED;
+                } else {
+                    int variable = heap.removeUnassigned();
+                    if (variable == 0) {
+                        return POSITIVE;
+                    }
+                    decisions++;
+                    trailLimits.add(trailSize);
+                    assign(2 * variable + ((phases[variable] == NEGATIVE) ? 1 : 0), NO_REASON);
+                }
+            }
+        }
+
+        // returns the index of a conflicting clause or NO_REASON
+        private int propagate() {
+            while (propagationHead < trailSize) {
+                int falseLiteral = trail[propagationHead++] ^ 1;
+                propagations++;
+                IntVector watchList = watches[falseLiteral];
+                int[] watching = watchList.elements;
+                int size = watchList.size, kept = 0;
+                for (int i = 0; i < size; ) {
+                    int index = watching[i++];
+                    int[] clause = clauses.get(index);
+                    if (clause[0] == falseLiteral) {
+                        clause[0] = clause[1];
+                        clause[1] = falseLiteral;
+                    }
+                    watching[kept++] = index;
+                    if (valueOf(clause[0]) == POSITIVE) {
+                        continue;
+                    }
+                    if (watchOther(clause, index)) {
+                        kept--;
+                    } else if (valueOf(clause[0]) == NEGATIVE) {
+                        while (i < size) {
+                            watching[kept++] = watching[i++];
+                        }
+                        watchList.size = kept;
+                        return index;
+                    } else {
+                        assign(clause[0], index);
+                    }
+                }
+                watchList.size = kept;
+            }
+            return NO_REASON;
+        }
+
+        // moves the watch from the false clause[1] to another literal which is not false
+        private boolean watchOther(int[] clause, int index) {
+            for (int k = 2; k < clause.length; k++) {
+                if (valueOf(clause[k]) != NEGATIVE) {
+                    int falseLiteral = clause[1];
+                    clause[1] = clause[k];
+                    clause[k] = falseLiteral;
+                    watches[clause[1]].add(index);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // learns the first-UIP clause with the asserting literal first and returns the level to jump back to
+        private int analyze(int conflict, IntVector learnt) {
+            learnt.clear();
+            learnt.add(0); // for the asserting literal
+            int paths = 0, literal = -1, trailIndex = trailSize - 1;
+            int clauseIndex = conflict;
+            do {
+                int[] clause = clauses.get(clauseIndex);
+                for (int k = (literal == -1) ? 0 : 1; k < clause.length; k++) {
+                    int variable = clause[k] >> 1;
+                    if (!seen[variable] && 0 < levels[variable]) {
+                        seen[variable] = true;
+                        bump(variable);
+                        if (levels[variable] == decisionLevel()) {
+                            paths++;
+                        } else {
+                            learnt.add(clause[k]);
+                        }
+                    }
+                }
+                while (!seen[trail[trailIndex] >> 1]) {
+                    trailIndex--;
+                }
+                literal = trail[trailIndex--];
+                clauseIndex = reasons[literal >> 1];
+                seen[literal >> 1] = false;
+                paths--;
+            } while (0 < paths);
+            learnt.elements[0] = literal ^ 1;
+
+            // drops every literal which is implied by other literals of the learnt clause
+            int[] collected = learnt.toArray();
+            learnt.size = 1;
+            for (int i = 1; i < collected.length; i++) {
+                if (!isRedundant(collected[i])) {
+                    learnt.add(collected[i]);
+                }
+            }
+            for (int i = 1; i < collected.length; i++) {
+                seen[collected[i] >> 1] = false;
+            }
+
+            int backjumpLevel = 0;
+            for (int i = 1; i < learnt.size; i++) {
+                int variable = learnt.elements[i] >> 1;
+                if (backjumpLevel < levels[variable]) {
+                    backjumpLevel = levels[variable];
+                    learnt.swap(1, i); // the literal of the highest level is watched as second
+                }
+            }
+            return backjumpLevel;
+        }
+
+        private boolean isRedundant(int literal) {
+            int reason = reasons[literal >> 1];
+            if (reason == NO_REASON) {
+                return false;
+            }
+            int[] clause = clauses.get(reason);
+            for (int k = 1; k < clause.length; k++) {
+                int variable = clause[k] >> 1;
+                if (!seen[variable] && 0 < levels[variable]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // the number of different decision levels in the clause, its "literal block distance"
+        private int glueOf(IntVector clause) {
+            stamp++;
+            int glue = 0;
+            for (int i = 0; i < clause.size; i++) {
+                int level = levels[clause.elements[i] >> 1];
+                if (levelStamps[level] != stamp) {
+                    levelStamps[level] = stamp;
+                    glue++;
+                }
+            }
+            return glue;
+        }
+
+        private int attach(int[] clause, int glue) {
+            int index = clauses.size();
+            clauses.add(clause);
+            glues.add(glue);
+            watches[clause[0]].add(index);
+            watches[clause[1]].add(index);
+            return index;
+        }
+
+        // only called on level 0 so no learnt clause is the reason of an assignment which is used by analyze()
+        private void reduceLearntClauses() {
+            int[] sortedGlues = new int[learntClauses];
+            for (int i = 0, j = 0; i < clauses.size(); i++) {
+                if (0 < glues.elements[i]) {
+                    sortedGlues[j++] = glues.elements[i];
+                }
+            }
+            Arrays.sort(sortedGlues);
+            int maximumGlue = sortedGlues[learntClauses / 2]; // keeps the better half and all clauses with glue 2
+            List<int[]> kept = new ArrayList<>(clauses.size());
+            IntVector keptGlues = new IntVector();
+            learntClauses = 0;
+            for (int i = 0; i < clauses.size(); i++) {
+                int glue = glues.elements[i];
+                if (glue <= 2 || glue < maximumGlue) { // the added clauses have glue 0
+                    kept.add(clauses.get(i));
+                    keptGlues.add(glue);
+                    learntClauses += (0 < glue) ? 1 : 0;
+                }
+            }
+            clauses.clear();
+            glues.clear();
+            for (int v = 1; v <= variables; v++) {
+                watches[2 * v].clear();
+                watches[2 * v + 1].clear();
+                reasons[v] = NO_REASON;
+            }
+            for (int i = 0; i < kept.size(); i++) {
+                attach(kept.get(i), keptGlues.elements[i]);
+            }
+        }
+
+        private void assign(int literal, int reason) {
+            int variable = literal >> 1;
+            assignments[variable] = ((literal & 1) == 0) ? POSITIVE : NEGATIVE;
+            levels[variable] = decisionLevel();
+            reasons[variable] = reason;
+            trail[trailSize++] = literal;
+        }
+
+        private void cancelUntil(int level) {
+            if (level < decisionLevel()) {
+                for (int i = trailSize - 1; trailLimits.elements[level] <= i; i--) {
+                    int variable = trail[i] >> 1;
+                    phases[variable] = assignments[variable];
+                    assignments[variable] = UNASSIGNED;
+                    reasons[variable] = NO_REASON;
+                    heap.insert(variable);
+                }
+                trailSize = propagationHead = trailLimits.elements[level];
+                trailLimits.size = level;
+            }
+        }
+
+        private int decisionLevel() {
+            return trailLimits.size;
+        }
+
+        private int valueOf(int literal) {
+            int value = assignments[literal >> 1];
+            return ((literal & 1) == 0) ? value : -value;
+        }
+
+        private void bump(int variable) {
+            activities[variable] += activityIncrement;
+            if (1e100 < activities[variable]) {
+                for (int v = 1; v <= variables; v++) {
+                    activities[v] *= 1e-100;
+                }
+                activityIncrement *= 1e-100;
+            }
+            heap.increased(variable);
+        }
+
+        // 1, 1, 2, 1, 1, 2, 4, 1, 1, 2, 1, 1, 2, 4, 8, ...
+        static int luby(int i) {
+            int k = 1;
+            while ((1 << k) - 1 < i) {
+                k++;
+            }
+            return (i == (1 << k) - 1) ? 1 << (k - 1) : luby(i - (1 << (k - 1)) + 1);
+        }
+
+        // a max-heap of variables ordered by their activities
+        private final class VariableHeap {
+            private int[] heap = new int[1];
+            private int[] positions = new int[1]; // the index in the heap or -1
+            private int size;
+
+            void insert(int variable) {
+                if (positions.length <= variable) {
+                    int old = positions.length;
+                    positions = Arrays.copyOf(positions, Math.max(2 * old, variable + 1));
+                    Arrays.fill(positions, old, positions.length, -1);
+                    heap = Arrays.copyOf(heap, positions.length);
+                }
+                if (positions[variable] < 0) {
+                    heap[size] = variable;
+                    positions[variable] = size;
+                    up(size++);
+                }
+            }
+
+            void increased(int variable) {
+                if (0 <= positions[variable]) {
+                    up(positions[variable]);
+                }
+            }
+
+            // returns 0 if every variable is assigned
+            int removeUnassigned() {
+                while (0 < size) {
+                    int variable = heap[0];
+                    positions[variable] = -1;
+                    heap[0] = heap[--size];
+                    if (0 < size) {
+                        positions[heap[0]] = 0;
+                        down(0);
+                    }
+                    if (assignments[variable] == UNASSIGNED) {
+                        return variable;
+                    }
+                }
+                return 0;
+            }
+
+            private void up(int index) {
+                int variable = heap[index];
+                while (0 < index && activities[heap[(index - 1) / 2]] < activities[variable]) {
+                    heap[index] = heap[(index - 1) / 2];
+                    positions[heap[index]] = index;
+                    index = (index - 1) / 2;
+                }
+                heap[index] = variable;
+                positions[variable] = index;
+            }
+
+            private void down(int index) {
+                int variable = heap[index];
+                while (2 * index + 1 < size) {
+                    int child = 2 * index + 1;
+                    if (child + 1 < size && activities[heap[child]] < activities[heap[child + 1]]) {
+                        child++;
+                    }
+                    if (activities[heap[child]] <= activities[variable]) {
+                        break;
+                    }
+                    heap[index] = heap[child];
+                    positions[heap[index]] = index;
+                    index = child;
+                }
+                heap[index] = variable;
+                positions[variable] = index;
+            }
+        }
+    }
+
+    static final class IntVector {
+        private int[] elements = new int[4];
+        private int size;
+
+        void add(int element) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, 2 * size);
+            }
+            elements[size++] = element;
+        }
+
+        int get(int index) {
+            return elements[index];
+        }
+
+        void set(int index, int element) {
+            elements[index] = element;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void swap(int i, int j) {
+            int element = elements[i];
+            elements[i] = elements[j];
+            elements[j] = element;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(elements, size);
+        }
+    }
+
+    static int[][] random3Sat(Random random, int variables, int clauses) {
+        int[][] instance = new int[clauses][3];
+        for (int[] clause : instance) {
+            for (int i = 0; i < 3; i++) {
+                clause[i] = (1 + random.nextInt(variables)) * (random.nextBoolean() ? 1 : -1);
+            }
+        }
+        return instance;
+    }
+
+    /*
+    Output (the times vary):
+    Satisfiable[model={Variable[name=B]=FALSE, Variable[name=C]=FALSE, Variable[name=D]=FALSE}]
+    UNSAT
+    UNSAT
+    random expressions: 500, satisfiable: 462, agree with the BDD: true
+    random 3-SAT with 4.26 clauses per variable, 20 instances each:
+    variables:  50, satisfiable:  9, models valid: true, average: 1 ms
+    variables: 100, satisfiable:  9, models valid: true, average: 3 ms
+    variables: 150, satisfiable:  7, models valid: true, average: 39 ms
+    variables: 200, satisfiable:  7, models valid: true, average: 203 ms
+     */
+    public static void main(String[] args) {
+        Variable A = new Variable("A");
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        Variable D = new Variable("D");
+
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        System.out.println(solve(new And(new Or(new And(FALSE, new Not(B)), new Not(new And(C, D))), TRUE)));
+        System.out.println(solve(new And(A, new Not(A))));
+        // can "A && B" and "!A || !B" fire together?
+        System.out.println(solve(new And(new And(A, B), new Or(new Not(A), new Not(B)))));
+
+        Random random = new Random(42);
+        List<Variable> variables = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            variables.add(new Variable("V" + i));
+        }
+        RecordDesignPattern_18_BinaryDecisionDiagram<Variable> bdd = new RecordDesignPattern_18_BinaryDecisionDiagram<>(variables);
+        int satisfiable = 0;
+        boolean agree = true;
+        for (int i = 0; i < 500; i++) {
+            Expression expression = RecordDesignPattern_11_Compiler.randomExpression(random, variables, 8);
+            Result result = solve(expression);
+            if (result instanceof Satisfiable(var model)) {
+                satisfiable++;
+                Map<Variable, Value> values = new LinkedHashMap<>(model);
+                variables.forEach(variable -> values.putIfAbsent(variable, FALSE));
+                agree &= evaluate(expression, values);
+            } else {
+                agree &= bdd.build(expression) == RecordDesignPattern_18_BinaryDecisionDiagram.FALSE;
+            }
+        }
+        System.out.println("random expressions: 500, satisfiable: " + satisfiable + ", agree with the BDD: " + agree);
+
+        System.out.println("random 3-SAT with 4.26 clauses per variable, 20 instances each:");
+        for (int n = 50; n <= 200; n += 50) {
+            int satisfiableInstances = 0;
+            boolean valid = true;
+            long nanos = 0;
+            for (int instance = 0; instance < 20; instance++) {
+                int[][] clauses = random3Sat(random, n, (int) Math.round(4.26 * n));
+                long start = System.nanoTime();
+                Solver solver = new Solver();
+                for (int v = 0; v < n; v++) {
+                    solver.newVariable();
+                }
+                for (int[] clause : clauses) {
+                    solver.addClause(clause);
+                }
+                boolean isSatisfiable = solver.solve();
+                nanos += System.nanoTime() - start;
+                if (isSatisfiable) {
+                    satisfiableInstances++;
+                    for (int[] clause : clauses) {
+                        valid &= Arrays.stream(clause).anyMatch(literal -> solver.value(Math.abs(literal)) == (0 < literal));
+                    }
+                }
+            }
+            System.out.printf("variables: %3d, satisfiable: %2d, models valid: %s, average: %d ms%n",
+                    n, satisfiableInstances, valid, nanos / 20 / 1_000_000);
+        }
+    }
+}
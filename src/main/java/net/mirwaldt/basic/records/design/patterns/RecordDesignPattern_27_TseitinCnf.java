@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_26_SatSolver.Solver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+ * The Tseitin transformation of RecordDesignPattern_08_Evaluate and RecordDesignPattern_10_ListsAndGenerics expressions
+ * into clauses which are streamed to a ClauseSink, e.g. a ClauseStore in memory, a DimacsWriter or the SatSolver.
+ * Every And and Or gets an auxiliary variable which is equivalent to it, Not only negates the literal of its operand
+ * and Brackets reuse it. Every node is only encoded once: shared subtrees reuse the literal of their first encoding.
+ * The encoder walks the tree with an explicit stack so time and memory are linear in the number of distinct nodes
+ * and deep trees cannot overflow the call stack.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_27_TseitinCnf {
+    interface ClauseSink {
+        int newVariable();
+
+        // DIMACS literals: variable v is v, its negation is -v
+        void addClause(int... literals);
+    }
+
+    static final class Encoder {
+        private final ClauseSink sink;
+        private final Map<Object, Integer> variables = new LinkedHashMap<>();
+        private final Map<Object, Integer> literals = new IdentityHashMap<>();
+        private final Deque<Object> stack = new ArrayDeque<>();
+        private int trueLiteral;
+
+        Encoder(ClauseSink sink) {
+            this.sink = sink;
+        }
+
+        // the variables of the expressions and their DIMACS variables in the order of their first occurrence
+        public Map<Object, Integer> variables() {
+            return Collections.unmodifiableMap(variables);
+        }
+
+        public void assertTrue(RecordDesignPattern_08_Evaluate.Expression expression) {
+            sink.addClause(literalOf(expression));
+        }
+
+        public <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> void assertTrue(
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression) {
+            sink.addClause(literalOf(expression));
+        }
+
+        // returns the literal which is equivalent to the expression
+        public int literalOf(RecordDesignPattern_08_Evaluate.Expression expression) {
+            stack.push(expression);
+            while (!stack.isEmpty()) {
+                RecordDesignPattern_08_Evaluate.Expression top = (RecordDesignPattern_08_Evaluate.Expression) stack.peek();
+                if (literals.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                switch (top) {
+                    case RecordDesignPattern_08_Evaluate.Variable variable -> encoded(top, variableOf(variable));
+                    case RecordDesignPattern_08_Evaluate.Value value ->
+                            encoded(top, (value == RecordDesignPattern_08_Evaluate.Value.TRUE) ? trueLiteral() : -trueLiteral());
+                    case RecordDesignPattern_08_Evaluate.Not(var unnegated) -> {
+                        if (ready(unnegated)) {
+                            encoded(top, -literals.get(unnegated));
+                        }
+                    }
+                    case RecordDesignPattern_08_Evaluate.And(var left, var right) -> {
+                        if (ready(right) & ready(left)) { // encodes the left operand first
+                            encoded(top, and(literals.get(left), literals.get(right)));
+                        }
+                    }
+                    case RecordDesignPattern_08_Evaluate.Or(var left, var right) -> {
+                        if (ready(right) & ready(left)) { // encodes the left operand first
+                            encoded(top, -and(-literals.get(left), -literals.get(right)));
+                        }
+                    }
+                }
+            }
+            return literals.get(expression);
+        }
+
+        public <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> int literalOf(
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression) {
+            stack.push(expression);
+            while (!stack.isEmpty()) {
+                @SuppressWarnings("unchecked")
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> top =
+                        (RecordDesignPattern_10_ListsAndGenerics.Expression<V>) stack.peek();
+                if (literals.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                switch (top) {
+                    case RecordDesignPattern_10_ListsAndGenerics.Variable<V> variable -> encoded(top, variableOf(variable));
+                    case RecordDesignPattern_10_ListsAndGenerics.Value<V> value ->
+                            encoded(top, (value == value.getTrue()) ? trueLiteral() : -trueLiteral());
+                    case RecordDesignPattern_10_ListsAndGenerics.Not<V>(var unnegated) -> {
+                        if (ready(unnegated)) {
+                            encoded(top, -literals.get(unnegated));
+                        }
+                    }
+                    case RecordDesignPattern_10_ListsAndGenerics.Brackets<V>(var withoutBrackets) -> {
+                        if (ready(withoutBrackets)) {
+                            encoded(top, literals.get(withoutBrackets));
+                        }
+                    }
+                    case RecordDesignPattern_10_ListsAndGenerics.And<V>(var first, var second, var tail) -> {
+                        if (ready(first, second, tail)) {
+                            encoded(top, and(operandLiterals(first, second, tail, 1)));
+                        }
+                    }
+                    case RecordDesignPattern_10_ListsAndGenerics.Or<V>(var first, var second, var tail) -> {
+                        if (ready(first, second, tail)) {
+                            encoded(top, -and(operandLiterals(first, second, tail, -1)));
+                        }
+                    }
+                }
+            }
+            return literals.get(expression);
+        }
+
+        // x <-> a1 && ... && an as (!x || a1), ..., (!x || an), (x || !a1 || ... || !an); Or is !(!a1 && ... && !an)
+        private int and(int... operands) {
+            int and = sink.newVariable();
+            int[] clause = new int[operands.length + 1];
+            clause[0] = and;
+            for (int i = 0; i < operands.length; i++) {
+                sink.addClause(-and, operands[i]);
+                clause[i + 1] = -operands[i];
+            }
+            sink.addClause(clause);
+            return and;
+        }
+
+        private <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> int[] operandLiterals(
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> first,
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> second,
+                List<RecordDesignPattern_10_ListsAndGenerics.Expression<V>> tail, int sign) {
+            int[] operands = new int[2 + tail.size()];
+            operands[0] = sign * literals.get(first);
+            operands[1] = sign * literals.get(second);
+            for (int i = 0; i < tail.size(); i++) {
+                operands[2 + i] = sign * literals.get(tail.get(i));
+            }
+            return operands;
+        }
+
+        // pushes the operand if it is not encoded yet
+        private boolean ready(Object operand) {
+            if (literals.containsKey(operand)) {
+                return true;
+            }
+            stack.push(operand);
+            return false;
+        }
+
+        private <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> boolean ready(
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> first,
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> second,
+                List<RecordDesignPattern_10_ListsAndGenerics.Expression<V>> tail) {
+            boolean ready = true;
+            for (int i = tail.size() - 1; 0 <= i; i--) {
+                ready &= ready(tail.get(i));
+            }
+            return ready(second) & ready(first) & ready;
+        }
+
+        private void encoded(Object expression, int literal) {
+            literals.put(expression, literal);
+            stack.pop();
+        }
+
+        private int variableOf(Object variable) {
+            return variables.computeIfAbsent(variable, v -> sink.newVariable());
+        }
+
+        private int trueLiteral() {
+            if (trueLiteral == 0) {
+                trueLiteral = sink.newVariable();
+                sink.addClause(trueLiteral);
+            }
+            return trueLiteral;
+        }
+    }
+
+    // all clauses in one int array, every clause is terminated by 0 like in DIMACS
+    static final class ClauseStore implements ClauseSink {
+        private int[] literals = new int[1024];
+        private int size;
+        private int variables;
+        private int clauses;
+
+        @Override
+        public int newVariable() {
+            return ++variables;
+        }
+
+        @Override
+        public void addClause(int... clause) {
+            if (literals.length < size + clause.length + 1) {
+                literals = Arrays.copyOf(literals, Math.max(2 * literals.length, size + clause.length + 1));
+            }
+            System.arraycopy(clause, 0, literals, size, clause.length);
+            size += clause.length;
+            literals[size++] = 0;
+            clauses++;
+        }
+
+        public int variables() {
+            return variables;
+        }
+
+        public int clauses() {
+            return clauses;
+        }
+
+        public void forEach(Consumer<int[]> action) {
+            for (int start = 0, end = 0; end < size; start = ++end) {
+                while (literals[end] != 0) {
+                    end++;
+                }
+                action.accept(Arrays.copyOfRange(literals, start, end));
+            }
+        }
+
+        // replays the variables and clauses into another sink
+        public void writeTo(ClauseSink sink) {
+            for (int v = 0; v < variables; v++) {
+                sink.newVariable();
+            }
+            forEach(sink::addClause);
+        }
+    }
+
+    /*
+     * Streams the clauses into a DIMACS file. The header comes first but the numbers of variables and clauses are
+     * only known at the end so it is written with a fixed width and overwritten by close().
+     */
+    static final class DimacsWriter implements ClauseSink, Closeable {
+        private static final String HEADER_FORMAT = "p cnf %10d %12d\n";
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private int variables;
+        private long clauses;
+
+        DimacsWriter(Path path) throws IOException {
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            write(String.format(HEADER_FORMAT, 0, 0));
+        }
+
+        @Override
+        public int newVariable() {
+            return ++variables;
+        }
+
+        @Override
+        public void addClause(int... literals) {
+            StringBuilder line = new StringBuilder(8 * literals.length + 2);
+            for (int literal : literals) {
+                line.append(literal).append(' ');
+            }
+            write(line.append("0\n").toString());
+            clauses++;
+        }
+
+        private void write(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            try {
+                if (buffer.remaining() < bytes.length) {
+                    flush();
+                }
+                if (buffer.capacity() < bytes.length) {
+                    channel.write(ByteBuffer.wrap(bytes));
+                } else {
+                    buffer.put(bytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                flush();
+                ByteBuffer header = ByteBuffer.wrap(
+                        String.format(HEADER_FORMAT, variables, clauses).getBytes(StandardCharsets.US_ASCII));
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+        }
+    }
+
+    /*
+    Output:
+    p cnf 8 14
+    1 0
+    -3 -1 0
+    -3 -2 0
+    3 1 2 0
+    -6 4 0
+    -6 5 0
+    6 -4 -5 0
+    -7 -3 0
+    -7 6 0
+    7 3 -6 0
+    -8 -7 0
+    -8 1 0
+    8 7 -1 0
+    8 0
+    variables: {Variable[name=B]=2, Variable[name=C]=4, Variable[name=D]=5}
+    deep chain: 1000003 variables, 3000001 clauses
+    shared subtrees: 61 variables, 181 clauses
+    p cnf 6 11
+    -4 -1 0
+    -4 -2 0
+    -4 -3 0
+    4 1 2 3 0
+    5 0
+    -6 -4 0
+    -6 -1 0
+    -6 -2 0
+    -6 5 0
+    6 4 1 2 -5 0
+    6 0
+    deep chain satisfiable: true
+     */
+    public static void main(String[] args) throws IOException {
+        RecordDesignPattern_08_Evaluate.Variable B = new RecordDesignPattern_08_Evaluate.Variable("B");
+        RecordDesignPattern_08_Evaluate.Variable C = new RecordDesignPattern_08_Evaluate.Variable("C");
+        RecordDesignPattern_08_Evaluate.Variable D = new RecordDesignPattern_08_Evaluate.Variable("D");
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        RecordDesignPattern_08_Evaluate.Expression expression = new RecordDesignPattern_08_Evaluate.And(
+                new RecordDesignPattern_08_Evaluate.Or(
+                        new RecordDesignPattern_08_Evaluate.And(RecordDesignPattern_08_Evaluate.Value.FALSE,
+                                new RecordDesignPattern_08_Evaluate.Not(B)),
+                        new RecordDesignPattern_08_Evaluate.Not(new RecordDesignPattern_08_Evaluate.And(C, D))),
+                RecordDesignPattern_08_Evaluate.Value.TRUE);
+        ClauseStore store = new ClauseStore();
+        Encoder encoder = new Encoder(store);
+        encoder.assertTrue(expression);
+        System.out.println("p cnf " + store.variables() + " " + store.clauses());
+        store.forEach(clause -> System.out.println(String.join(" ",
+                Arrays.stream(clause).mapToObj(Integer::toString).toList()) + " 0"));
+        System.out.println("variables: " + encoder.variables());
+
+        // a chain of one million nested operands is encoded without recursion
+        RecordDesignPattern_08_Evaluate.Expression deep = B;
+        for (int i = 0; i < 1_000_000; i++) {
+            deep = (i % 2 == 0)
+                    ? new RecordDesignPattern_08_Evaluate.And(new RecordDesignPattern_08_Evaluate.Not(deep), C)
+                    : new RecordDesignPattern_08_Evaluate.Or(deep, D);
+        }
+        ClauseStore deepStore = new ClauseStore();
+        new Encoder(deepStore).assertTrue(deep);
+        System.out.println("deep chain: " + deepStore.variables() + " variables, " + deepStore.clauses() + " clauses");
+
+        // 2^60 paths through the tree but only 61 distinct nodes
+        RecordDesignPattern_08_Evaluate.Expression shared = C;
+        for (int i = 0; i < 60; i++) {
+            shared = new RecordDesignPattern_08_Evaluate.Or(shared, new RecordDesignPattern_08_Evaluate.Not(shared));
+        }
+        ClauseStore sharedStore = new ClauseStore();
+        new Encoder(sharedStore).assertTrue(shared);
+        System.out.println("shared subtrees: " + sharedStore.variables() + " variables, "
+                + sharedStore.clauses() + " clauses");
+
+        // n-ary operands of RecordDesignPattern_10_ListsAndGenerics
+        RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue> x = new RecordDesignPattern_10_ListsAndGenerics.Variable<>("x");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue> y = new RecordDesignPattern_10_ListsAndGenerics.Variable<>("y");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue> z = new RecordDesignPattern_10_ListsAndGenerics.Variable<>("z");
+        RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> nAry = new RecordDesignPattern_10_ListsAndGenerics.And<>(
+                new RecordDesignPattern_10_ListsAndGenerics.Or<>(x, y, z),
+                new RecordDesignPattern_10_ListsAndGenerics.Brackets<>(new RecordDesignPattern_10_ListsAndGenerics.Not<>(x)),
+                new RecordDesignPattern_10_ListsAndGenerics.Not<>(y), BoolValue.TRUE);
+        Path file = Files.createTempFile("expression", ".cnf");
+        try (DimacsWriter writer = new DimacsWriter(file)) {
+            new Encoder(writer).assertTrue(nAry);
+        }
+        Files.readAllLines(file).forEach(line -> System.out.println(line.replaceAll(" +", " ").trim()));
+
+        Solver solver = new Solver();
+        deepStore.writeTo(solver);
+        System.out.println("deep chain satisfiable: " + solver.solve());
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.Assignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedExpression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.LongAssignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.VariableSlots;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.assignment;
+
+/*
+ * Common-subexpression elimination turns a RecordDesignPattern_08_Evaluate tree into a DAG of numbered nodes:
+ * structurally equal subtrees like every copy of !(C && D) become one node because a node is identified by its kind
+ * and the numbers of its operands which are already unique. Operands are numbered before their parents.
+ * Commutative operands are not reordered so the evaluation order and the short-circuiting stay the same.
+ * The evaluator memoizes every node in a per-evaluation scratch array. The entries are stamped with the number
+ * of the evaluation so the array never needs to be cleared and short-circuited nodes cost nothing.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_28_CommonSubexpressions {
+    static final int VALUE = 0, VARIABLE = 1, NOT = 2, AND = 3, OR = 4;
+
+    private record NodeKey(int kind, int left, int right) {
+
+    }
+
+    // all nodes of a Builder which may have numbered many expressions so there is no single root.
+    // The operands of node i are lefts[i] and rights[i], the value of a VALUE node is lefts[i] == 1,
+    // the slot of a VARIABLE node is lefts[i]
+    record Nodes(int[] kinds, int[] lefts, int[] rights, VariableSlots<Variable> slots) {
+        public int size() {
+            return kinds.length;
+        }
+    }
+
+    // one expression of the nodes: the nodes which are not reachable from the root are never evaluated
+    record Dag(Nodes nodes, int root) {
+        Dag {
+            if (root < 0 || nodes.size() <= root) {
+                throw new IllegalArgumentException("No node " + root + " among " + nodes.size() + " nodes");
+            }
+        }
+
+        public int size() {
+            return nodes.size();
+        }
+
+        public VariableSlots<Variable> slots() {
+            return nodes.slots();
+        }
+
+        public Scratch newScratch() {
+            return new Scratch(size());
+        }
+
+        public boolean evaluate(Map<Variable, Value> values) {
+            return evaluate(assignment(values, TRUE, slots()), newScratch());
+        }
+
+        public boolean evaluate(Assignment assignment, Scratch scratch) {
+            return evaluate(root, assignment, scratch.entries, scratch.nextEpoch());
+        }
+
+        private boolean evaluate(int node, Assignment assignment, int[] entries, int epoch) {
+            int entry = entries[node];
+            if ((entry >>> 1) == epoch) {
+                return (entry & 1) == 1;
+            }
+            int left = nodes.lefts()[node];
+            boolean value = switch (nodes.kinds()[node]) {
+                case VALUE -> left == 1;
+                case VARIABLE -> assignment.get(left);
+                case NOT -> !evaluate(left, assignment, entries, epoch);
+                case AND -> evaluate(left, assignment, entries, epoch)
+                        && evaluate(nodes.rights()[node], assignment, entries, epoch);
+                default -> evaluate(left, assignment, entries, epoch)
+                        || evaluate(nodes.rights()[node], assignment, entries, epoch);
+            };
+            entries[node] = (epoch << 1) | (value ? 1 : 0);
+            return value;
+        }
+
+        // shared nodes become shared records, operands are numbered before their parents so no node after the root
+        // is needed
+        public Expression toExpression() {
+            int[] kinds = nodes.kinds(), lefts = nodes.lefts(), rights = nodes.rights();
+            Expression[] expressions = new Expression[root + 1];
+            for (int i = 0; i <= root; i++) {
+                expressions[i] = switch (kinds[i]) {
+                    case VALUE -> (lefts[i] == 1) ? TRUE : FALSE;
+                    case VARIABLE -> nodes.slots().variable(lefts[i]);
+                    case NOT -> new Not(expressions[lefts[i]]);
+                    case AND -> new And(expressions[lefts[i]], expressions[rights[i]]);
+                    default -> new Or(expressions[lefts[i]], expressions[rights[i]]);
+                };
+            }
+            return expressions[root];
+        }
+    }
+
+    // not thread-safe: every thread needs its own scratch
+    static final class Scratch {
+        private static final int MAXIMUM_EPOCH = 1 << 30;
+
+        private final int[] entries;
+        private int epoch;
+
+        private Scratch(int size) {
+            this.entries = new int[size];
+        }
+
+        private int nextEpoch() {
+            if (++epoch == MAXIMUM_EPOCH) {
+                Arrays.fill(entries, 0);
+                epoch = 1;
+            }
+            return epoch;
+        }
+    }
+
+    public static Dag eliminate(Expression expression, VariableSlots<Variable> slots) {
+        Builder builder = new Builder(slots);
+        int root = builder.number(expression);
+        return new Dag(builder.toNodes(), root);
+    }
+
+    // numbers the nodes of many expressions so that they share all their common subexpressions
+    static final class Builder {
+        private final VariableSlots<Variable> slots;
+        private final Map<NodeKey, Integer> numbers = new HashMap<>();
+        private final Map<Expression, Integer> identities = new IdentityHashMap<>(); // for already shared records
+        private int[] kinds = new int[16], lefts = new int[16], rights = new int[16];
+        private int size;
+
+        Builder(VariableSlots<Variable> slots) {
+            this.slots = slots;
+        }
+
+        int number(Expression expression) {
+            Integer number = identities.get(expression);
+            if (number == null) {
+                number = switch (expression) {
+                    case Value value -> number(VALUE, (value == TRUE) ? 1 : 0, 0);
+                    case Variable variable -> number(VARIABLE, slots.slotOf(variable), 0);
+                    case Not(var unnegated) -> number(NOT, number(unnegated), 0);
+                    case And(var left, var right) -> number(AND, number(left), number(right));
+                    case Or(var left, var right) -> number(OR, number(left), number(right));
+                };
+                identities.put(expression, number);
+            }
+            return number;
+        }
+
+        Nodes toNodes() {
+            return new Nodes(Arrays.copyOf(kinds, size), Arrays.copyOf(lefts, size), Arrays.copyOf(rights, size),
+                    slots);
+        }
+
+        private int number(int kind, int left, int right) {
+            return numbers.computeIfAbsent(new NodeKey(kind, left, right), key -> {
+                if (size == kinds.length) {
+                    kinds = Arrays.copyOf(kinds, 2 * size);
+                    lefts = Arrays.copyOf(lefts, 2 * size);
+                    rights = Arrays.copyOf(rights, 2 * size);
+                }
+                kinds[size] = kind;
+                lefts[size] = left;
+                rights[size] = right;
+                return size++;
+            });
+        }
+    }
+
+    // a random DAG of levels which is expanded into a tree by copying so equal subtrees are different records
+    static Expression repetitiveExpression(Random random, List<Variable> variables, int depth, int width) {
+        List<Expression> level = new ArrayList<>(variables);
+        for (int d = 0; d < depth; d++) {
+            List<Expression> next = new ArrayList<>(width);
+            for (int i = 0; i < width; i++) {
+                Expression left = level.get(random.nextInt(level.size()));
+                Expression right = level.get(random.nextInt(level.size()));
+                next.add(switch (random.nextInt(5)) {
+                    case 0 -> new Not(new And(left, right));
+                    case 1, 2 -> new And(left, right);
+                    default -> new Or(left, right);
+                });
+            }
+            level = next;
+        }
+        return copy(level.get(0));
+    }
+
+    private static Expression copy(Expression expression) {
+        return switch (expression) {
+            case Value value -> value;
+            case Variable variable -> new Variable(variable.name());
+            case Not(var unnegated) -> new Not(copy(unnegated));
+            case And(var left, var right) -> new And(copy(left), copy(right));
+            case Or(var left, var right) -> new Or(copy(left), copy(right));
+        };
+    }
+
+    private static int size(Expression expression) {
+        return switch (expression) {
+            case Value value -> 1;
+            case Variable variable -> 1;
+            case Not(var unnegated) -> 1 + size(unnegated);
+            case And(var left, var right) -> 1 + size(left) + size(right);
+            case Or(var left, var right) -> 1 + size(left) + size(right);
+        };
+    }
+
+    /*
+    Output (the times vary):
+    tree nodes: 14, dag nodes: 10
+    !(C && D) is shared: true
+    true
+    tree nodes: 605234, dag nodes: 191
+    tree: 81 ms, indexed tree: 39 ms, dag: 4 ms, mismatches: 0
+     */
+    public static void main(String[] args) {
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        Variable D = new Variable("D");
+        // "(FALSE && !B || !(C && D)) && !(C && D)"
+        Expression expression = new And(new Or(new And(FALSE, new Not(B)), new Not(new And(C, D))),
+                new Not(new And(new Variable("C"), new Variable("D"))));
+        Dag dag = eliminate(expression, new VariableSlots<>());
+        System.out.println("tree nodes: " + size(expression) + ", dag nodes: " + dag.size());
+        And shared = (And) dag.toExpression();
+        System.out.println("!(C && D) is shared: " + (((Or) shared.left()).right() == shared.right()));
+        System.out.println(dag.evaluate(Map.of(B, TRUE, C, FALSE, D, TRUE)));
+
+        List<Variable> variables = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            variables.add(new Variable("V" + i));
+        }
+        Random random = new Random(42);
+        Expression repetitive = repetitiveExpression(random, variables, 18, 12);
+        VariableSlots<Variable> slots = new VariableSlots<>();
+        Dag repetitiveDag = eliminate(repetitive, slots);
+        IndexedExpression indexed = RecordDesignPattern_13_VariableSlots.index(repetitive, slots);
+        System.out.println("tree nodes: " + size(repetitive) + ", dag nodes: " + repetitiveDag.size());
+
+        List<Map<Variable, Value>> assignments = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Map<Variable, Value> values = new HashMap<>();
+            variables.forEach(variable -> values.put(variable, random.nextBoolean() ? TRUE : FALSE));
+            assignments.add(values);
+        }
+        Scratch scratch = repetitiveDag.newScratch();
+        long treeNanos = 0, indexedNanos = 0, dagNanos = 0;
+        int mismatches = 0;
+        for (int round = 0; round < 3; round++) { // the first rounds warm up
+            treeNanos = indexedNanos = dagNanos = 0;
+            mismatches = 0;
+            for (Map<Variable, Value> values : assignments) {
+                LongAssignment assignment = (LongAssignment) assignment(values, TRUE, slots);
+                long start = System.nanoTime();
+                boolean byTree = RecordDesignPattern_08_Evaluate.evaluate(repetitive, values);
+                long afterTree = System.nanoTime();
+                boolean byIndexedTree = RecordDesignPattern_13_VariableSlots.evaluate(indexed, assignment);
+                long afterIndexedTree = System.nanoTime();
+                boolean byDag = repetitiveDag.evaluate(assignment, scratch);
+                long afterDag = System.nanoTime();
+                treeNanos += afterTree - start;
+                indexedNanos += afterIndexedTree - afterTree;
+                dagNanos += afterDag - afterIndexedTree;
+                mismatches += (byTree == byIndexedTree && byTree == byDag) ? 0 : 1;
+            }
+        }
+        System.out.println("tree: " + treeNanos / 1_000_000 + " ms, indexed tree: " + indexedNanos / 1_000_000
+                + " ms, dag: " + dagNanos / 1_000_000 + " ms, mismatches: " + mismatches);
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Brackets;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/*
+ * Evaluates an expression of RecordDesignPattern_10_ListsAndGenerics as a filter over columnar data:
+ * every variable is a packed bitmap column with one bit per row and the result is such a bitmap, too.
+ * Instead of one tree walk per row, the tree is walked once per block of 64 * 1024 rows and every operator
+ * combines whole blocks of words by wide AND, OR and NOT. Blocks keep the temporary results in the cache
+ * so the throughput is bound by reading the columns from memory.
+ * The kernels use the Vector API if the module jdk.incubator.vector was added by
+ * "--add-modules jdk.incubator.vector" and fall back to scalar loops otherwise.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_29_ColumnarFilter {
+    static final int BLOCK_WORDS = 1024;
+
+    interface Kernels {
+        void and(long[] left, int leftOffset, long[] right, int rightOffset, long[] result, int length);
+
+        void or(long[] left, int leftOffset, long[] right, int rightOffset, long[] result, int length);
+
+        void not(long[] operand, int operandOffset, long[] result, int length);
+    }
+
+    static final class ScalarKernels implements Kernels {
+        @Override
+        public void and(long[] left, int leftOffset, long[] right, int rightOffset, long[] result, int length) {
+            for (int i = 0; i < length; i++) {
+                result[i] = left[leftOffset + i] & right[rightOffset + i];
+            }
+        }
+
+        @Override
+        public void or(long[] left, int leftOffset, long[] right, int rightOffset, long[] result, int length) {
+            for (int i = 0; i < length; i++) {
+                result[i] = left[leftOffset + i] | right[rightOffset + i];
+            }
+        }
+
+        @Override
+        public void not(long[] operand, int operandOffset, long[] result, int length) {
+            for (int i = 0; i < length; i++) {
+                result[i] = ~operand[operandOffset + i];
+            }
+        }
+    }
+
+    // only loaded if the module is present, the scalar loops handle the rest of every block
+    static final class VectorKernels implements Kernels {
+        private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+        @Override
+        public void and(long[] left, int leftOffset, long[] right, int rightOffset, long[] result, int length) {
+            int i = 0;
+            for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+                LongVector.fromArray(SPECIES, left, leftOffset + i)
+                        .and(LongVector.fromArray(SPECIES, right, rightOffset + i))
+                        .intoArray(result, i);
+            }
+            for (; i < length; i++) {
+                result[i] = left[leftOffset + i] & right[rightOffset + i];
+            }
+        }
+
+        @Override
+        public void or(long[] left, int leftOffset, long[] right, int rightOffset, long[] result, int length) {
+            int i = 0;
+            for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+                LongVector.fromArray(SPECIES, left, leftOffset + i)
+                        .or(LongVector.fromArray(SPECIES, right, rightOffset + i))
+                        .intoArray(result, i);
+            }
+            for (; i < length; i++) {
+                result[i] = left[leftOffset + i] | right[rightOffset + i];
+            }
+        }
+
+        @Override
+        public void not(long[] operand, int operandOffset, long[] result, int length) {
+            int i = 0;
+            for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+                LongVector.fromArray(SPECIES, operand, operandOffset + i).not().intoArray(result, i);
+            }
+            for (; i < length; i++) {
+                result[i] = ~operand[operandOffset + i];
+            }
+        }
+    }
+
+    static final Kernels KERNELS = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            ? new VectorKernels() : new ScalarKernels();
+
+    private static final long[] ZEROS = new long[BLOCK_WORDS];
+    private static final long[] ONES = new long[BLOCK_WORDS];
+
+    static {
+        Arrays.fill(ONES, -1L);
+    }
+
+    // the words of a block start at offset, temporary words always start at 0 and go back into the pool
+    private record Words(long[] words, int offset, boolean isTemporary) {
+
+    }
+
+    public static <V extends Value<V>> long[] filter(Expression<V> expression, Map<Variable<V>, long[]> columns,
+                                                     int rows) {
+        return filter(expression, columns, rows, KERNELS);
+    }
+
+    public static <V extends Value<V>> long[] filter(Expression<V> expression, Map<Variable<V>, long[]> columns,
+                                                     int rows, Kernels kernels) {
+        long[] result = new long[words(rows)];
+        ArrayDeque<long[]> pool = new ArrayDeque<>();
+        for (int from = 0; from < result.length; from += BLOCK_WORDS) {
+            int length = Math.min(BLOCK_WORDS, result.length - from);
+            Words block = filter(expression, columns, from, length, kernels, pool);
+            System.arraycopy(block.words(), block.offset(), result, from, length);
+            release(block, pool);
+        }
+        if (rows % Long.SIZE != 0) { // NOT sets the bits behind the last row
+            result[result.length - 1] &= (1L << rows) - 1;
+        }
+        return result;
+    }
+
+    private static <V extends Value<V>> Words filter(Expression<V> expression, Map<Variable<V>, long[]> columns,
+                                                     int from, int length, Kernels kernels, ArrayDeque<long[]> pool) {
+        return switch (expression) {
+            case Value<V> value -> new Words((value == value.getTrue()) ? ONES : ZEROS, 0, false);
+            case Variable<V> variable ->
+                    new Words(Objects.requireNonNull(columns.get(variable), () -> "No column for " + variable),
+                            from, false);
+            case Brackets<V>(var withoutBrackets) -> filter(withoutBrackets, columns, from, length, kernels, pool);
+            case Not<V>(var unnegated) -> {
+                Words operand = filter(unnegated, columns, from, length, kernels, pool);
+                long[] result = operand.isTemporary() ? operand.words() : acquire(pool);
+                kernels.not(operand.words(), operand.offset(), result, length);
+                yield new Words(result, 0, true);
+            }
+            case And<V>(var first, var second, var tail) ->
+                    filter(false, first, second, tail, columns, from, length, kernels, pool);
+            case Or<V>(var first, var second, var tail) ->
+                    filter(true, first, second, tail, columns, from, length, kernels, pool);
+        };
+    }
+
+    // folds the operands into one temporary block which is the left operand and the result of every step
+    private static <V extends Value<V>> Words filter(boolean isOr, Expression<V> first, Expression<V> second,
+                                                     List<Expression<V>> tail, Map<Variable<V>, long[]> columns,
+                                                     int from, int length, Kernels kernels, ArrayDeque<long[]> pool) {
+        Words result = filter(first, columns, from, length, kernels, pool);
+        for (int i = -1; i < tail.size(); i++) {
+            Words operand = filter((i < 0) ? second : tail.get(i), columns, from, length, kernels, pool);
+            long[] words = result.isTemporary() ? result.words()
+                    : operand.isTemporary() ? operand.words() : acquire(pool);
+            if (isOr) {
+                kernels.or(result.words(), result.offset(), operand.words(), operand.offset(), words, length);
+            } else {
+                kernels.and(result.words(), result.offset(), operand.words(), operand.offset(), words, length);
+            }
+            if (operand.isTemporary() && operand.words() != words) {
+                release(operand, pool);
+            }
+            result = new Words(words, 0, true);
+        }
+        return result;
+    }
+
+    private static long[] acquire(ArrayDeque<long[]> pool) {
+        long[] words = pool.poll();
+        return (words == null) ? new long[BLOCK_WORDS] : words;
+    }
+
+    private static void release(Words words, ArrayDeque<long[]> pool) {
+        if (words.isTemporary()) {
+            pool.push(words.words());
+        }
+    }
+
+    static int words(int rows) {
+        return (rows + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    static long count(long[] bitmap) {
+        long count = 0;
+        for (long word : bitmap) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static <V extends Value<V>> int size(Expression<V> expression) {
+        return switch (expression) {
+            case Value<V> value -> 1;
+            case Variable<V> variable -> 1;
+            case Brackets<V>(var withoutBrackets) -> 1 + size(withoutBrackets);
+            case Not<V>(var unnegated) -> 1 + size(unnegated);
+            case And<V>(var first, var second, var tail) -> 1 + size(first) + size(second) + size(tail);
+            case Or<V>(var first, var second, var tail) -> 1 + size(first) + size(second) + size(tail);
+        };
+    }
+
+    private static <V extends Value<V>> int size(List<Expression<V>> operands) {
+        int size = 0;
+        for (Expression<V> operand : operands) {
+            size += size(operand);
+        }
+        return size;
+    }
+
+    // one tree walk per row as the reference
+    static <V extends Value<V>> boolean evaluateRow(Expression<V> expression, Map<Variable<V>, long[]> columns,
+                                                    int row) {
+        return switch (expression) {
+            case Value<V> value -> value == value.getTrue();
+            case Variable<V> variable -> (columns.get(variable)[row >>> 6] & (1L << row)) != 0;
+            case Brackets<V>(var withoutBrackets) -> evaluateRow(withoutBrackets, columns, row);
+            case Not<V>(var unnegated) -> !evaluateRow(unnegated, columns, row);
+            case And<V>(var first, var second, var tail) -> {
+                boolean result = evaluateRow(first, columns, row) && evaluateRow(second, columns, row);
+                for (int i = 0; result && i < tail.size(); i++) {
+                    result = evaluateRow(tail.get(i), columns, row);
+                }
+                yield result;
+            }
+            case Or<V>(var first, var second, var tail) -> {
+                boolean result = evaluateRow(first, columns, row) || evaluateRow(second, columns, row);
+                for (int i = 0; !result && i < tail.size(); i++) {
+                    result = evaluateRow(tail.get(i), columns, row);
+                }
+                yield result;
+            }
+        };
+    }
+
+    /*
+    Output (the times vary):
+    kernels: VectorKernels
+    101111
+    rows: 4194304, columns: 16, nodes: 546
+    row by row: 3553 ms, scalar kernels: 16 ms, vector kernels: 7 ms
+    matches: 2097078, all equal: true
+     */
+    public static void main(String[] args) {
+        int rows = (args.length == 0) ? 1 << 22 : Integer.parseInt(args[0]);
+        System.out.println("kernels: " + KERNELS.getClass().getSimpleName());
+
+        Variable<BoolValue> A = new Variable<>("A");
+        Variable<BoolValue> B = new Variable<>("B");
+        Variable<BoolValue> C = new Variable<>("C");
+        Variable<BoolValue> D = new Variable<>("D");
+        // "(A && TRUE && !B || !(C && D) || FALSE) && TRUE" over 8 rows, row 0 is the lowest bit
+        Expression<BoolValue> expression = new And<>(new Or<>(new And<>(A, BoolValue.TRUE, new Not<>(B)),
+                new Not<>(new And<>(C, D)), BoolValue.FALSE), BoolValue.TRUE);
+        long[] matches = filter(expression, Map.of(A, new long[]{0b10101010}, B, new long[]{0b11001100},
+                C, new long[]{0b11110000}, D, new long[]{0b11111111}), 8);
+        System.out.println(Long.toBinaryString(matches[0]));
+
+        Random random = new Random(1);
+        List<Variable<BoolValue>> variables = new ArrayList<>();
+        Map<Variable<BoolValue>, long[]> columns = new HashMap<>();
+        for (int i = 0; i < 16; i++) {
+            Variable<BoolValue> variable = new Variable<>("V" + i);
+            variables.add(variable);
+            long[] column = new long[words(rows)];
+            for (int w = 0; w < column.length; w++) {
+                column[w] = random.nextLong();
+            }
+            columns.put(variable, column);
+        }
+        expression = RecordDesignPattern_23_Arena.randomExpression(random, variables, 7);
+        System.out.println("rows: " + rows + ", columns: " + columns.size() + ", nodes: "
+                + size(expression));
+
+        long start = System.nanoTime();
+        long[] byRow = new long[words(rows)];
+        for (int row = 0; row < rows; row++) {
+            if (evaluateRow(expression, columns, row)) {
+                byRow[row >>> 6] |= 1L << row;
+            }
+        }
+        long byRowMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long[] scalar = null, vector = null;
+        long scalarNanos = 0, vectorNanos = 0;
+        for (int round = 0; round < 5; round++) { // the first rounds warm up
+            start = System.nanoTime();
+            scalar = filter(expression, columns, rows, new ScalarKernels());
+            long afterScalar = System.nanoTime();
+            vector = filter(expression, columns, rows, KERNELS);
+            long afterVector = System.nanoTime();
+            scalarNanos = afterScalar - start;
+            vectorNanos = afterVector - afterScalar;
+        }
+        System.out.println("row by row: " + byRowMillis + " ms, scalar kernels: " + scalarNanos / 1_000_000
+                + " ms, " + (KERNELS instanceof VectorKernels ? "vector" : "fallback") + " kernels: "
+                + vectorNanos / 1_000_000 + " ms");
+        System.out.println("matches: " + count(vector) + ", all equal: "
+                + (Arrays.equals(byRow, scalar) && Arrays.equals(byRow, vector)));
+    }
+}
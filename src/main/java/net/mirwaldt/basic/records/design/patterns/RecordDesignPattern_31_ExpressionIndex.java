@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_26_SatSolver.IntVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+
+/*
+ * An inverted index of rules like the k-index for boolean expressions:
+ * every rule is turned into its disjunctive normal form and every conjunction is posted to the variables
+ * which it requires to be true, bucketed by its size which is the number of these variables.
+ * An event is sparse and only names its true variables. A conjunction of size K matches
+ * if the event hits it in K posting lists and in none of the lists of the variables which it requires to be false.
+ * So a query only touches the posting lists of the true variables and only buckets with K <= true variables.
+ * Conjunctions of size 0 like "!A" are kept in an extra list which every query visits.
+ * Deleted conjunctions are skipped until they outnumber the others in the posting lists which are compacted then.
+ * Not thread-safe: inserts, deletes and queries must be serialized by the caller.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_31_ExpressionIndex {
+    static final int MAXIMUM_CONJUNCTIONS = 256;
+
+    private final Map<Variable, Integer> slots = new HashMap<>(); // no VariableSlots since queries must not add slots
+    private final List<IntVector[]> positives = new ArrayList<>(); // by slot and size
+    private final List<IntVector> negatives = new ArrayList<>(); // by slot
+    private IntVector zeros = new IntVector(); // the conjunctions of size 0
+    private final IntVector conjunctionRules = new IntVector(); // -1 if deleted
+    private final IntVector conjunctionSizes = new IntVector();
+    private final List<int[]> ruleConjunctions = new ArrayList<>(); // null if deleted
+    private int deletedConjunctions;
+    private int deletedSinceCompaction; // still in the posting lists
+    private int rules;
+
+    // the state of a query which is reused by the next one
+    private int[] counts = new int[0];
+    private int[] ruleEpochs = new int[0];
+    private int epoch;
+    private final IntVector touched = new IntVector();
+
+    // returns the ID of the rule
+    public int insert(Expression rule) {
+        List<int[]> dnf = dnf(rule, false);
+        int id = ruleConjunctions.size();
+        int[] conjunctions = new int[dnf.size()];
+        for (int i = 0; i < conjunctions.length; i++) {
+            conjunctions[i] = post(id, dnf.get(i));
+        }
+        ruleConjunctions.add(conjunctions);
+        rules++;
+        return id;
+    }
+
+    private int post(int rule, int[] literals) {
+        int conjunction = conjunctionRules.size();
+        int size = 0;
+        for (int literal : literals) {
+            if (0 < literal) {
+                size++;
+            }
+        }
+        conjunctionRules.add(rule);
+        conjunctionSizes.add(size);
+        if (size == 0) {
+            zeros.add(conjunction);
+        }
+        for (int literal : literals) {
+            if (0 < literal) {
+                IntVector[] bySize = positives.get(literal - 1);
+                if (bySize.length <= size) {
+                    bySize = Arrays.copyOf(bySize, size + 1);
+                    positives.set(literal - 1, bySize);
+                }
+                if (bySize[size] == null) {
+                    bySize[size] = new IntVector();
+                }
+                bySize[size].add(conjunction);
+            } else {
+                negatives.get(-literal - 1).add(conjunction);
+            }
+        }
+        return conjunction;
+    }
+
+    public boolean delete(int rule) {
+        if (rule < 0 || ruleConjunctions.size() <= rule || ruleConjunctions.get(rule) == null) {
+            return false;
+        }
+        for (int conjunction : ruleConjunctions.get(rule)) {
+            conjunctionRules.set(conjunction, -1);
+        }
+        deletedConjunctions += ruleConjunctions.get(rule).length;
+        deletedSinceCompaction += ruleConjunctions.get(rule).length;
+        ruleConjunctions.set(rule, null);
+        rules--;
+        if (conjunctionRules.size() - deletedConjunctions < deletedSinceCompaction) {
+            compact();
+            deletedSinceCompaction = 0;
+        }
+        return true;
+    }
+
+    // drops the deleted conjunctions from all posting lists, the IDs of conjunctions and rules stay the same
+    private void compact() {
+        for (IntVector[] bySize : positives) {
+            for (int size = 0; size < bySize.length; size++) {
+                bySize[size] = (bySize[size] == null) ? null : alive(bySize[size]);
+            }
+        }
+        negatives.replaceAll(this::alive);
+        zeros = alive(zeros);
+    }
+
+    private IntVector alive(IntVector conjunctions) {
+        IntVector alive = new IntVector();
+        for (int i = 0; i < conjunctions.size(); i++) {
+            if (0 <= conjunctionRules.get(conjunctions.get(i))) {
+                alive.add(conjunctions.get(i));
+            }
+        }
+        return alive;
+    }
+
+    public int size() {
+        return rules;
+    }
+
+    public int[] match(Map<Variable, Value> event) {
+        List<Variable> trueVariables = new ArrayList<>();
+        event.forEach((variable, value) -> {
+            if (value == TRUE) {
+                trueVariables.add(variable);
+            }
+        });
+        return match(trueVariables);
+    }
+
+    // returns the IDs of all rules which match if exactly the given distinct variables are true in ascending order
+    public int[] match(Collection<Variable> trueVariables) {
+        if (counts.length < conjunctionRules.size()) {
+            counts = Arrays.copyOf(counts, conjunctionRules.size() + conjunctionRules.size() / 2);
+        }
+        if (ruleEpochs.length < ruleConjunctions.size()) {
+            ruleEpochs = Arrays.copyOf(ruleEpochs, ruleConjunctions.size() + ruleConjunctions.size() / 2);
+        }
+        epoch++;
+        IntVector trueSlots = new IntVector();
+        for (Variable variable : trueVariables) {
+            Integer slot = slots.get(variable);
+            if (slot != null) {
+                trueSlots.add(slot);
+            }
+        }
+
+        // a conjunction of size K needs K hits so the buckets of larger sizes are skipped
+        int trueCount = trueSlots.size();
+        for (int i = 0; i < trueCount; i++) {
+            IntVector[] bySize = positives.get(trueSlots.get(i));
+            for (int size = 1; size < Math.min(bySize.length, trueCount + 1); size++) {
+                IntVector conjunctions = bySize[size];
+                for (int j = 0; conjunctions != null && j < conjunctions.size(); j++) {
+                    int conjunction = conjunctions.get(j);
+                    if (counts[conjunction]++ == 0) {
+                        touched.add(conjunction);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < trueCount; i++) {
+            IntVector conjunctions = negatives.get(trueSlots.get(i));
+            for (int j = 0; j < conjunctions.size(); j++) {
+                int conjunction = conjunctions.get(j);
+                if (counts[conjunction] == 0) {
+                    touched.add(conjunction);
+                }
+                counts[conjunction] = Integer.MIN_VALUE / 2; // excluded whatever the other hits are
+            }
+        }
+
+        IntVector matches = new IntVector();
+        for (int i = 0; i < zeros.size(); i++) {
+            if (counts[zeros.get(i)] == 0) {
+                match(zeros.get(i), matches);
+            }
+        }
+        for (int i = 0; i < touched.size(); i++) {
+            int conjunction = touched.get(i);
+            if (counts[conjunction] == conjunctionSizes.get(conjunction)) {
+                match(conjunction, matches);
+            }
+            counts[conjunction] = 0;
+        }
+        touched.clear();
+        int[] result = matches.toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void match(int conjunction, IntVector matches) {
+        int rule = conjunctionRules.get(conjunction);
+        if (0 <= rule && ruleEpochs[rule] != epoch) { // a rule can match by several conjunctions
+            ruleEpochs[rule] = epoch;
+            matches.add(rule);
+        }
+    }
+
+    private int literalOf(Variable variable, boolean isNegated) {
+        int slot = slots.computeIfAbsent(variable, v -> slots.size());
+        while (positives.size() <= slot) {
+            positives.add(new IntVector[1]);
+            negatives.add(new IntVector());
+        }
+        return isNegated ? -(slot + 1) : (slot + 1);
+    }
+
+    // a conjunction is a sorted array of literals: slot + 1 if the variable must be true, -(slot + 1) if false
+    private List<int[]> dnf(Expression expression, boolean isNegated) {
+        return switch (expression) {
+            case Value value -> ((value == TRUE) != isNegated) ? List.of(new int[0]) : List.of();
+            case Variable variable -> List.<int[]>of(new int[]{literalOf(variable, isNegated)});
+            case Not(var unnegated) -> dnf(unnegated, !isNegated);
+            case And(var left, var right) -> isNegated
+                    ? union(dnf(left, true), dnf(right, true))
+                    : product(dnf(left, false), dnf(right, false));
+            case Or(var left, var right) -> isNegated
+                    ? product(dnf(left, true), dnf(right, true))
+                    : union(dnf(left, false), dnf(right, false));
+        };
+    }
+
+    private static List<int[]> union(List<int[]> left, List<int[]> right) {
+        List<int[]> union = new ArrayList<>(left.size() + right.size());
+        union.addAll(left);
+        union.addAll(right);
+        return checkSize(union);
+    }
+
+    private static List<int[]> product(List<int[]> left, List<int[]> right) {
+        List<int[]> product = new ArrayList<>(left.size() * right.size());
+        for (int[] leftLiterals : left) {
+            for (int[] rightLiterals : right) {
+                int[] literals = merge(leftLiterals, rightLiterals);
+                if (literals != null) {
+                    product.add(literals);
+                }
+            }
+        }
+        return checkSize(product);
+    }
+
+    // null if the conjunction contains a variable and its negation
+    private static int[] merge(int[] left, int[] right) {
+        int[] literals = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, literals, left.length, right.length);
+        Arrays.sort(literals);
+        int size = 0;
+        for (int literal : literals) {
+            if (size == 0 || literals[size - 1] != literal) {
+                literals[size++] = literal;
+            }
+        }
+        for (int i = 0; i < size && literals[i] < 0; i++) {
+            if (0 <= Arrays.binarySearch(literals, 0, size, -literals[i])) {
+                return null;
+            }
+        }
+        return Arrays.copyOf(literals, size);
+    }
+
+    private static List<int[]> checkSize(List<int[]> conjunctions) {
+        if (MAXIMUM_CONJUNCTIONS < conjunctions.size()) {
+            throw new IllegalArgumentException("More than " + MAXIMUM_CONJUNCTIONS + " conjunctions in the DNF");
+        }
+        return conjunctions;
+    }
+
+    // targeting rules like "(A && B && !C) || (D && E)" over a large vocabulary
+    static Expression randomRule(Random random, List<Variable> variables) {
+        Expression rule = randomConjunction(random, variables);
+        return (random.nextInt(4) == 0) ? new Or(rule, randomConjunction(random, variables)) : rule;
+    }
+
+    private static Expression randomConjunction(Random random, List<Variable> variables) {
+        Expression conjunction = variables.get(random.nextInt(variables.size()));
+        for (int i = random.nextInt(4); 0 < i; i--) {
+            Expression variable = variables.get(random.nextInt(variables.size()));
+            conjunction = new And(conjunction, (random.nextInt(4) == 0) ? new Not(variable) : variable);
+        }
+        return conjunction;
+    }
+
+    /*
+    Output (the times vary):
+    [0, 2]
+    [2]
+    rules: 1000000, insert: 2824 ms, events: 1000, matches per event: 4178, query: 3.3 ms per event
+    scan: 109 ms per event, mismatches: 0
+    after deleting every second rule: 500000 rules, mismatches: 0
+     */
+    public static void main(String[] args) {
+        Variable A = new Variable("A");
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        RecordDesignPattern_31_ExpressionIndex index = new RecordDesignPattern_31_ExpressionIndex();
+        index.insert(new And(A, new Not(B))); // 0
+        index.insert(new And(B, C)); // 1
+        index.insert(new Not(new And(B, C))); // 2 with the conjunctions "!B" and "!C"
+        System.out.println(Arrays.toString(index.match(List.of(A))));
+        index.delete(0);
+        System.out.println(Arrays.toString(index.match(Map.of(A, TRUE, B, FALSE, C, TRUE))));
+
+        List<Variable> vocabulary = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            vocabulary.add(new Variable("V" + i));
+        }
+        // 10M or 100M rules need "java -Xmx..." with enough memory
+        for (String arg : (args.length == 0) ? new String[]{"1000000"} : args) {
+            int count = Integer.parseInt(arg);
+            index = new RecordDesignPattern_31_ExpressionIndex();
+            long start = System.nanoTime();
+            Random random = new Random(42);
+            for (int i = 0; i < count; i++) {
+                index.insert(randomRule(random, vocabulary));
+            }
+            long insertMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // sparse events with 100 true variables
+            int events = 1000;
+            List<List<Variable>> stream = new ArrayList<>(events);
+            for (int i = 0; i < events; i++) {
+                Set<Variable> trueVariables = new HashSet<>();
+                while (trueVariables.size() < 100) {
+                    trueVariables.add(vocabulary.get(random.nextInt(vocabulary.size())));
+                }
+                stream.add(new ArrayList<>(trueVariables));
+            }
+            long matches = 0;
+            start = System.nanoTime();
+            for (List<Variable> event : stream) {
+                matches += index.match(event).length;
+            }
+            long queryNanos = System.nanoTime() - start;
+            System.out.printf("rules: %d, insert: %d ms, events: %d, matches per event: %d, query: %.1f ms per event%n",
+                    count, insertMillis, events, matches / events, queryNanos / 1_000_000.0 / events);
+
+            // the scan regenerates the same rules instead of keeping them all
+            int scannedEvents = 10;
+            List<Map<Variable, Value>> scannedValues = new ArrayList<>();
+            for (int i = 0; i < scannedEvents; i++) {
+                Map<Variable, Value> values = new HashMap<>();
+                vocabulary.forEach(variable -> values.put(variable, FALSE));
+                stream.get(i).forEach(variable -> values.put(variable, TRUE));
+                scannedValues.add(values);
+            }
+            List<IntVector> scanned = new ArrayList<>();
+            scannedValues.forEach(values -> scanned.add(new IntVector()));
+            start = System.nanoTime();
+            random = new Random(42);
+            for (int id = 0; id < count; id++) {
+                Expression rule = randomRule(random, vocabulary);
+                for (int i = 0; i < scannedEvents; i++) {
+                    if (RecordDesignPattern_08_Evaluate.evaluate(rule, scannedValues.get(i))) {
+                        scanned.get(i).add(id);
+                    }
+                }
+            }
+            long scanMillis = (System.nanoTime() - start) / 1_000_000 / scannedEvents;
+            int mismatches = 0;
+            for (int i = 0; i < scannedEvents; i++) {
+                mismatches += Arrays.equals(index.match(stream.get(i)), scanned.get(i).toArray()) ? 0 : 1;
+            }
+            System.out.println("scan: " + scanMillis + " ms per event, mismatches: " + mismatches);
+
+            for (int id = 0; id < count; id += 2) {
+                index.delete(id);
+            }
+            mismatches = 0;
+            for (int i = 0; i < scannedEvents; i++) {
+                IntVector odd = new IntVector();
+                for (int j = 0; j < scanned.get(i).size(); j++) {
+                    if (scanned.get(i).get(j) % 2 == 1) {
+                        odd.add(scanned.get(i).get(j));
+                    }
+                }
+                mismatches += Arrays.equals(index.match(stream.get(i)), odd.toArray()) ? 0 : 1;
+            }
+            System.out.println("after deleting every second rule: " + index.size() + " rules, mismatches: "
+                    + mismatches);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.IndexedExpression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.LongAssignment;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.VariableSlots;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.evaluate;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_13_VariableSlots.index;
+
+/*
+ * Serves evaluations over a loopback TCP or a Unix domain socket with one virtual thread per connection.
+ * Expressions are registered before so a request only carries the ID of an expression and the assignment
+ * as 64 bits, one for every slot of the variables which all registered expressions share:
+ *     request: int expressionId, long bits      response: byte FALSE, TRUE or UNKNOWN
+ * Requests can be pipelined: the server answers everything it has read in one batch of responses in the same order.
+ * The evaluation is the one of RecordDesignPattern_13_VariableSlots which gives the same results as
+ * RecordDesignPattern_08_Evaluate without a map per request.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_32_EvaluationServer {
+    static final int REQUEST_BYTES = Integer.BYTES + Long.BYTES;
+    static final byte FALSE = 0, TRUE = 1, UNKNOWN = 2;
+
+    static final class Server implements AutoCloseable {
+        private final VariableSlots<Variable> slots = new VariableSlots<>();
+        private final List<IndexedExpression> expressions = new CopyOnWriteArrayList<>();
+        private final ServerSocketChannel serverChannel;
+        private final SocketAddress address;
+        private final Thread acceptor;
+        private final Map<SocketChannel, Thread> clients = new ConcurrentHashMap<>();
+
+        private Server(ServerSocketChannel serverChannel) throws IOException {
+            this.serverChannel = serverChannel;
+            this.address = serverChannel.getLocalAddress();
+            this.acceptor = Thread.ofVirtual().name("acceptor").start(this::accept);
+        }
+
+        // new InetSocketAddress(InetAddress.getLoopbackAddress(), 0) or UnixDomainSocketAddress.of(path)
+        public static Server open(SocketAddress address) throws IOException {
+            ServerSocketChannel serverChannel = (address instanceof UnixDomainSocketAddress)
+                    ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                    : ServerSocketChannel.open();
+            serverChannel.bind(address, 4096);
+            return new Server(serverChannel);
+        }
+
+        public SocketAddress address() {
+            return address;
+        }
+
+        public VariableSlots<Variable> slots() {
+            return slots;
+        }
+
+        // returns the ID of the expression
+        public synchronized int register(Expression expression) {
+            // checked before indexing because a rejected expression must not take slots
+            Set<Variable> newVariables = new HashSet<>();
+            collectVariables(expression, newVariables);
+            newVariables.removeAll(slots.variables());
+            if (Long.SIZE < slots.size() + newVariables.size()) {
+                throw new IllegalArgumentException("More than " + Long.SIZE + " variables in " + expression);
+            }
+            expressions.add(index(expression, slots));
+            return expressions.size() - 1;
+        }
+
+        private static void collectVariables(Expression expression, Set<Variable> variables) {
+            switch (expression) {
+                case Value value -> {
+                }
+                case Variable variable -> variables.add(variable);
+                case Not(var unnegated) -> collectVariables(unnegated, variables);
+                case And(var left, var right) -> {
+                    collectVariables(left, variables);
+                    collectVariables(right, variables);
+                }
+                case Or(var left, var right) -> {
+                    collectVariables(left, variables);
+                    collectVariables(right, variables);
+                }
+            }
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    SocketChannel channel = serverChannel.accept();
+                    Thread client = Thread.ofVirtual().unstarted(() -> serve(channel));
+                    clients.put(channel, client);
+                    client.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(SocketChannel channel) {
+            ByteBuffer requests = ByteBuffer.allocate(REQUEST_BYTES * 4096);
+            ByteBuffer responses = ByteBuffer.allocate(requests.capacity() / REQUEST_BYTES);
+            try (channel) {
+                withoutDelay(channel);
+                while (0 <= channel.read(requests)) {
+                    requests.flip();
+                    while (REQUEST_BYTES <= requests.remaining()) {
+                        int expressionId = requests.getInt();
+                        long bits = requests.getLong();
+                        responses.put(answer(expressionId, bits));
+                    }
+                    requests.compact();
+                    responses.flip();
+                    while (responses.hasRemaining()) {
+                        channel.write(responses);
+                    }
+                    responses.clear();
+                }
+            } catch (IOException e) {
+                // the client is gone or the server is closed
+            } finally {
+                clients.remove(channel);
+            }
+        }
+
+        private byte answer(int expressionId, long bits) {
+            if (expressionId < 0 || expressions.size() <= expressionId) {
+                return UNKNOWN;
+            }
+            return evaluate(expressions.get(expressionId), new LongAssignment(bits)) ? TRUE : FALSE;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverChannel.close();
+            try {
+                acceptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // no more clients can connect after the acceptor has ended
+            for (Map.Entry<SocketChannel, Thread> client : clients.entrySet()) {
+                client.getKey().close();
+                try {
+                    client.getValue().join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (address instanceof UnixDomainSocketAddress unixAddress) {
+                Files.deleteIfExists(unixAddress.getPath());
+            }
+        }
+    }
+
+    // sends one request and waits for the response
+    static byte request(SocketAddress address, int expressionId, long bits) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            withoutDelay(channel);
+            ByteBuffer request = ByteBuffer.allocate(REQUEST_BYTES).putInt(expressionId).putLong(bits).flip();
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+            ByteBuffer response = ByteBuffer.allocate(1);
+            while (response.hasRemaining() && 0 <= channel.read(response)) {
+                // until the byte arrived
+            }
+            return response.get(0);
+        }
+    }
+
+    // Nagle's algorithm would hold back small requests and responses until the previous ones are acknowledged
+    private static void withoutDelay(SocketChannel channel) throws IOException {
+        if (channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    // the latencies only come from the connections which did not fail
+    record Load(int connections, int requests, int depth, long nanos, long[] latencies, int mismatches, int failures) {
+        public long requestsPerSecond() {
+            return (long) (connections - failures) * requests * 1_000_000_000L / nanos;
+        }
+
+        // the round trip time of a pipelined batch in microseconds
+        public long percentile(double percentile) {
+            if (latencies.length == 0) {
+                throw new IllegalStateException("All connections failed");
+            }
+            return latencies[(int) Math.min(latencies.length - 1, latencies.length * percentile / 100)] / 1000;
+        }
+    }
+
+    // Unix domain sockets fail instead of waiting if the backlog of the server is full so they try again
+    private static SocketChannel connect(SocketAddress address) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return SocketChannel.open(address);
+            } catch (SocketException e) {
+                if (!(address instanceof UnixDomainSocketAddress) || attempt == 1000) {
+                    throw e;
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    // every connection sends its requests in batches of depth requests and waits for the responses of every batch
+    static Load generateLoad(SocketAddress address, List<IndexedExpression> expressions, int connections,
+                             int requests, int depth) throws InterruptedException {
+        CountDownLatch connected = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        long[][] latencies = new long[connections][requests / depth];
+        AtomicInteger mismatches = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> clients = new ArrayList<>(connections);
+        for (int c = 0; c < connections; c++) {
+            int client = c;
+            clients.add(Thread.ofVirtual().start(() -> {
+                Random random = new Random(client);
+                ByteBuffer batch = ByteBuffer.allocate(REQUEST_BYTES * depth);
+                ByteBuffer responses = ByteBuffer.allocate(depth);
+                int[] expressionIds = new int[depth];
+                long[] bits = new long[depth];
+                SocketChannel opened;
+                try {
+                    opened = connect(address);
+                    withoutDelay(opened);
+                } catch (IOException e) {
+                    latencies[client] = null;
+                    failures.incrementAndGet();
+                    return;
+                } catch (InterruptedException e) {
+                    latencies[client] = null;
+                    failures.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    connected.countDown(); // also if the connection failed so the load does not wait forever
+                }
+                try (SocketChannel channel = opened) {
+                    start.await();
+                    for (int b = 0; b < requests / depth; b++) {
+                        for (int i = 0; i < depth; i++) {
+                            expressionIds[i] = random.nextInt(expressions.size());
+                            bits[i] = random.nextLong();
+                            batch.putInt(expressionIds[i]).putLong(bits[i]);
+                        }
+                        batch.flip();
+                        long sent = System.nanoTime();
+                        while (batch.hasRemaining()) {
+                            channel.write(batch);
+                        }
+                        while (responses.hasRemaining()) {
+                            if (channel.read(responses) < 0) {
+                                throw new IOException("Connection closed by the server");
+                            }
+                        }
+                        latencies[client][b] = System.nanoTime() - sent;
+                        for (int i = 0; i < depth; i++) {
+                            boolean expected = evaluate(expressions.get(expressionIds[i]), new LongAssignment(bits[i]));
+                            if (responses.get(i) != (expected ? TRUE : FALSE)) {
+                                mismatches.incrementAndGet();
+                            }
+                        }
+                        batch.clear();
+                        responses.clear();
+                    }
+                } catch (IOException e) {
+                    latencies[client] = null;
+                    failures.incrementAndGet();
+                } catch (InterruptedException e) {
+                    latencies[client] = null;
+                    failures.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        connected.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread client : clients) {
+            client.join();
+        }
+        long nanos = System.nanoTime() - begin;
+        long[] allLatencies = Arrays.stream(latencies).filter(Objects::nonNull)
+                .flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Load(connections, requests, depth, nanos, allLatencies, mismatches.get(), failures.get());
+    }
+
+    /*
+    Output (the times vary):
+    true
+    false
+    rejected, slots: 32
+    accepted, slots: 33
+    tcp: connections: 5000, requests: 500000, pipeline depth: 10, requests per second: 122152, p50: 274119 us, p99: 843461 us, mismatches: 0, failures: 0
+    unix: connections: 5000, requests: 500000, pipeline depth: 10, requests per second: 174018, p50: 251032 us, p99: 330685 us, mismatches: 0, failures: 0
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // 10k connections need more than 20k file descriptors in one process, see "ulimit -n"
+        int connections = (args.length < 1) ? 5000 : Integer.parseInt(args[0]);
+        int requests = (args.length < 2) ? 100 : Integer.parseInt(args[1]);
+        int depth = (args.length < 3) ? 10 : Integer.parseInt(args[2]);
+
+        List<Variable> variables = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            variables.add(new Variable("V" + i));
+        }
+        Random random = new Random(42);
+        List<Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expressions.add(RecordDesignPattern_11_Compiler.randomExpression(random, variables, 8));
+        }
+
+        Path socketPath = Files.createTempDirectory("evaluation").resolve("server.socket");
+        for (SocketAddress address : List.of(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                UnixDomainSocketAddress.of(socketPath))) {
+            try (Server server = Server.open(address)) {
+                variables.forEach(server.slots()::slotOf); // V0 is bit 0
+                List<IndexedExpression> indexed = new ArrayList<>();
+                for (Expression expression : expressions) {
+                    server.register(expression);
+                    indexed.add(index(expression, server.slots()));
+                }
+                if (address instanceof InetSocketAddress) {
+                    int id = server.register(new Or(variables.get(0), variables.get(1))); // "V0 || V1"
+                    System.out.println(request(server.address(), id, 0b10) == TRUE);
+                    System.out.println(request(server.address(), id, 0b00) == TRUE);
+
+                    Expression tooManyVariables = new Variable("W0"); // 33 new variables besides the 32 ones
+                    for (int i = 1; i <= Long.SIZE - variables.size(); i++) {
+                        tooManyVariables = new And(tooManyVariables, new Variable("W" + i));
+                    }
+                    try {
+                        server.register(tooManyVariables);
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("rejected, slots: " + server.slots().size());
+                    }
+                    server.register(new Variable("Y"));
+                    System.out.println("accepted, slots: " + server.slots().size());
+                }
+
+                Load load = generateLoad(server.address(), indexed, connections, requests, depth);
+                System.out.println(((address instanceof UnixDomainSocketAddress) ? "unix" : "tcp")
+                        + ": connections: " + connections + ", requests: " + (long) connections * requests
+                        + ", pipeline depth: " + depth + ", requests per second: " + load.requestsPerSecond()
+                        + ", p50: " + load.percentile(50) + " us, p99: " + load.percentile(99) + " us"
+                        + ", mismatches: " + load.mismatches() + ", failures: " + load.failures());
+            }
+        }
+        Files.deleteIfExists(socketPath.getParent());
+    }
+}
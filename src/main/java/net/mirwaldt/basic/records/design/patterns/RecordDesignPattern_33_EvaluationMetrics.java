@@ -0,0 +1,678 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Variable;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.FALSE;
+import static net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_08_Evaluate.Value.TRUE;
+
+/*
+ * Opt-in metrics around the evaluators of RecordDesignPattern_08_Evaluate, RecordDesignPattern_10_ListsAndGenerics
+ * and RecordDesignPattern_09_VisitorPattern: the instrumented methods take the metrics of an expression
+ * which a caller gets once from the registry, and null means that the plain evaluator is called.
+ * Every expression counts all its calls in a LongAdder. Every thread samples one call of 64 on average:
+ * it is timed into a histogram with one bucket per power of two nanoseconds, an AtomicLongArray
+ * so recording never takes a lock, and it counts the visited nodes, the visited And and Or operators
+ * and how many of them were short-circuited in locals which are added to LongAdders once per call.
+ * The other calls are plain calls plus one increment.
+ * The registry writes all metrics in the text format of Prometheus.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_33_EvaluationMetrics {
+    static final int SAMPLING_INTERVAL = 64; // one call of 64 is sampled on average
+
+    // the same buckets in every scrape so that rate() and histogram_quantile() work over time:
+    // le is 2^i - 1 ns for every second i from 15 ns up to 2^34 - 1 ns which is about 17 s
+    static final int FIRST_PUBLISHED_BUCKET = 4, LAST_PUBLISHED_BUCKET = 34;
+
+    // the calls of every thread until its next sample, random so that the samples do not follow patterns of calls
+    private static final ThreadLocal<int[]> CALLS_UNTIL_SAMPLE = ThreadLocal.withInitial(() -> new int[1]);
+
+    static final class LogHistogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1); // bucket i: [2^(i-1), 2^i)
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long value) {
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            sum.add(value);
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long[] buckets() {
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+            }
+            return snapshot;
+        }
+    }
+
+    static final class ExpressionMetrics {
+        private final String evaluator;
+        private final String expression;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder sampledCalls = new LongAdder();
+        private final LongAdder nodes = new LongAdder();
+        private final LongAdder operators = new LongAdder();
+        private final LongAdder shortCircuits = new LongAdder();
+        private final LogHistogram nanos = new LogHistogram();
+
+        private ExpressionMetrics(String evaluator, String expression) {
+            this.evaluator = evaluator;
+            this.expression = expression;
+        }
+
+        public double shortCircuitRate() {
+            long visitedOperators = operators.sum();
+            return (visitedOperators == 0) ? 0.0 : (double) shortCircuits.sum() / visitedOperators;
+        }
+
+        private void addSample(Counts counts, long nanos) {
+            sampledCalls.increment();
+            nodes.add(counts.nodes);
+            operators.add(counts.operators);
+            shortCircuits.add(counts.shortCircuits);
+            this.nanos.record(nanos);
+        }
+    }
+
+    // the counts of one call
+    private static final class Counts {
+        private long nodes;
+        private long operators;
+        private long shortCircuits;
+    }
+
+    static final class Metrics {
+        private record Key(String evaluator, String expression) {
+
+        }
+
+        private final Map<Key, ExpressionMetrics> metrics = new ConcurrentHashMap<>();
+
+        // the expression is a name like a rule ID because the label should be short
+        public ExpressionMetrics of(String evaluator, String expression) {
+            return metrics.computeIfAbsent(new Key(evaluator, expression),
+                    key -> new ExpressionMetrics(evaluator, expression));
+        }
+
+        public void writeTo(Path path) throws IOException {
+            try (Writer writer = Files.newBufferedWriter(path)) {
+                writeTo(writer);
+            }
+        }
+
+        public void writeTo(Appendable out) throws IOException {
+            List<ExpressionMetrics> sorted = new ArrayList<>(metrics.values());
+            sorted.sort(Comparator.comparing((ExpressionMetrics m) -> m.evaluator).thenComparing(m -> m.expression));
+            writeCounter(out, "expression_evaluations_total", "Number of evaluations.", sorted, m -> m.calls);
+            writeCounter(out, "expression_sampled_evaluations_total", "Number of sampled evaluations.",
+                    sorted, m -> m.sampledCalls);
+            writeCounter(out, "expression_nodes_visited_total", "Number of visited nodes in sampled evaluations.",
+                    sorted, m -> m.nodes);
+            writeCounter(out, "expression_operators_visited_total",
+                    "Number of visited And and Or nodes in sampled evaluations.", sorted, m -> m.operators);
+            writeCounter(out, "expression_short_circuits_total",
+                    "Number of And and Or nodes which skipped operands in sampled evaluations.",
+                    sorted, m -> m.shortCircuits);
+
+            String name = "expression_evaluation_seconds";
+            out.append("# HELP ").append(name).append(" Latency of sampled evaluations.\n");
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            for (ExpressionMetrics m : sorted) {
+                long[] buckets = m.nanos.buckets();
+                long count = 0;
+                int published = FIRST_PUBLISHED_BUCKET;
+                for (int i = 0; i < buckets.length; i++) {
+                    count += buckets[i];
+                    if (i == published && published <= LAST_PUBLISHED_BUCKET) {
+                        // bucket i holds [2^(i-1), 2^i) so all its values are at most 2^i - 1 ns
+                        appendSample(out, name + "_bucket", m, ",le=\"" + (double) ((1L << i) - 1) / 1e9 + "\"", count);
+                        published += 2;
+                    }
+                }
+                appendSample(out, name + "_bucket", m, ",le=\"+Inf\"", count);
+                out.append(name).append("_sum").append(labels(m, "")).append(' ')
+                        .append(Double.toString(m.nanos.sum() / 1e9)).append('\n');
+                appendSample(out, name + "_count", m, "", count);
+            }
+        }
+
+        private interface Counter {
+            LongAdder of(ExpressionMetrics metrics);
+        }
+
+        private static void writeCounter(Appendable out, String name, String help, List<ExpressionMetrics> sorted,
+                                         Counter counter) throws IOException {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for (ExpressionMetrics m : sorted) {
+                appendSample(out, name, m, "", counter.of(m).sum());
+            }
+        }
+
+        private static void appendSample(Appendable out, String name, ExpressionMetrics m, String moreLabels,
+                                         long value) throws IOException {
+            out.append(name).append(labels(m, moreLabels)).append(' ').append(Long.toString(value)).append('\n');
+        }
+
+        private static String labels(ExpressionMetrics m, String moreLabels) {
+            return "{evaluator=\"" + escape(m.evaluator) + "\",expression=\"" + escape(m.expression) + "\""
+                    + moreLabels + "}";
+        }
+
+        private static String escape(String label) {
+            return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            try {
+                writeTo(builder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // StringBuilder never throws
+            }
+            return builder.toString();
+        }
+    }
+
+    // counts the call and decides whether it is sampled
+    private static boolean isSampled(ExpressionMetrics metrics) {
+        if (metrics == null) {
+            return false;
+        }
+        metrics.calls.increment();
+        int[] callsUntilSample = CALLS_UNTIL_SAMPLE.get();
+        if (0 < callsUntilSample[0]--) {
+            return false;
+        }
+        callsUntilSample[0] = ThreadLocalRandom.current().nextInt(2 * SAMPLING_INTERVAL);
+        return true;
+    }
+
+    public static boolean evaluate(ExpressionMetrics metrics, Expression expression, Map<Variable, Value> values) {
+        if (!isSampled(metrics)) {
+            return RecordDesignPattern_08_Evaluate.evaluate(expression, values);
+        }
+        Counts counts = new Counts();
+        long start = System.nanoTime();
+        boolean result = evaluate(expression, values, counts);
+        metrics.addSample(counts, System.nanoTime() - start);
+        return result;
+    }
+
+    private static boolean evaluate(Expression expression, Map<Variable, Value> values, Counts counts) {
+        counts.nodes++;
+        return switch (expression) {
+            case Value value -> value == TRUE;
+            case Variable variable -> { // the variable and its value are one node
+                Value value = values.get(variable);
+                if (value == null) {
+                    throw new NullPointerException("No value for " + variable);
+                }
+                yield value == TRUE;
+            }
+            case Not(var unnegated) -> !evaluate(unnegated, values, counts);
+            case And(var left, var right) -> {
+                counts.operators++;
+                if (!evaluate(left, values, counts)) {
+                    counts.shortCircuits++;
+                    yield false;
+                }
+                yield evaluate(right, values, counts);
+            }
+            case Or(var left, var right) -> {
+                counts.operators++;
+                if (evaluate(left, values, counts)) {
+                    counts.shortCircuits++;
+                    yield true;
+                }
+                yield evaluate(right, values, counts);
+            }
+        };
+    }
+
+    public static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> V evaluate(
+            ExpressionMetrics metrics, RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression,
+            Map<RecordDesignPattern_10_ListsAndGenerics.Variable<V>,
+                    RecordDesignPattern_10_ListsAndGenerics.Expression<V>> values) {
+        if (!isSampled(metrics)) {
+            return RecordDesignPattern_10_ListsAndGenerics.evaluate(expression, values);
+        }
+        Counts counts = new Counts();
+        long start = System.nanoTime();
+        V result = evaluate(expression, values, counts);
+        metrics.addSample(counts, System.nanoTime() - start);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> V evaluate(
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> expression,
+            Map<RecordDesignPattern_10_ListsAndGenerics.Variable<V>,
+                    RecordDesignPattern_10_ListsAndGenerics.Expression<V>> values, Counts counts) {
+        counts.nodes++;
+        return switch (expression) {
+            case RecordDesignPattern_10_ListsAndGenerics.Variable<V> variable -> {
+                RecordDesignPattern_10_ListsAndGenerics.Expression<V> assigned = values.get(variable);
+                yield (assigned instanceof RecordDesignPattern_10_ListsAndGenerics.Value<V>)
+                        ? (V) assigned // the variable and its value are one node
+                        : evaluate(assigned, values, counts);
+            }
+            case RecordDesignPattern_10_ListsAndGenerics.Not<V>(var unnegated) ->
+                    evaluate(unnegated, values, counts).negate();
+            case RecordDesignPattern_10_ListsAndGenerics.Brackets<V>(var withoutBrackets) ->
+                    evaluate(withoutBrackets, values, counts);
+            case RecordDesignPattern_10_ListsAndGenerics.And<V>(var first, var second, var tail) ->
+                    evaluate(false, first, second, tail, values, counts);
+            case RecordDesignPattern_10_ListsAndGenerics.Or<V>(var first, var second, var tail) ->
+                    evaluate(true, first, second, tail, values, counts);
+            case RecordDesignPattern_10_ListsAndGenerics.Expression<V> value -> (V) value;
+        };
+    }
+
+    // short-circuited if an operand before the last one decides the result
+    private static <V extends RecordDesignPattern_10_ListsAndGenerics.Value<V>> V evaluate(
+            boolean isOr, RecordDesignPattern_10_ListsAndGenerics.Expression<V> first,
+            RecordDesignPattern_10_ListsAndGenerics.Expression<V> second,
+            List<RecordDesignPattern_10_ListsAndGenerics.Expression<V>> tail,
+            Map<RecordDesignPattern_10_ListsAndGenerics.Variable<V>,
+                    RecordDesignPattern_10_ListsAndGenerics.Expression<V>> values, Counts counts) {
+        counts.operators++;
+        V result = evaluate(first, values, counts);
+        V decisive = isOr ? result.getTrue() : result.getFalse();
+        int evaluated = 1;
+        if (result != decisive) {
+            result = evaluate(second, values, counts);
+            evaluated++;
+            for (int i = 0; result != decisive && i < tail.size(); i++) {
+                result = evaluate(tail.get(i), values, counts);
+                evaluated++;
+            }
+        }
+        if (evaluated < 2 + tail.size()) {
+            counts.shortCircuits++;
+        }
+        return result;
+    }
+
+    // counts the nodes of the sampled expressions it evaluates, a variable counts as the value which it visits.
+    // Calls which are not sampled go to a plain evaluator so they pay for the counting visits neither.
+    static final class CountingEvaluator extends RecordDesignPattern_09_VisitorPattern.Evaluator {
+        private final RecordDesignPattern_09_VisitorPattern.Evaluator plain;
+        private final Counts counts = new Counts();
+
+        public CountingEvaluator(Map<RecordDesignPattern_09_VisitorPattern.Variable,
+                RecordDesignPattern_09_VisitorPattern.Value> values) {
+            super(values);
+            this.plain = new RecordDesignPattern_09_VisitorPattern.Evaluator(values);
+        }
+
+        // not thread-safe because the counts of a call are in the fields
+        public boolean evaluate(ExpressionMetrics metrics, RecordDesignPattern_09_VisitorPattern.Expression expression) {
+            if (!isSampled(metrics)) {
+                return expression.accept(plain);
+            }
+            counts.nodes = counts.operators = counts.shortCircuits = 0;
+            long start = System.nanoTime();
+            boolean result = expression.accept(this);
+            metrics.addSample(counts, System.nanoTime() - start);
+            return result;
+        }
+
+        @Override
+        public Boolean visit(RecordDesignPattern_09_VisitorPattern.Value value) {
+            counts.nodes++;
+            return super.visit(value);
+        }
+
+        @Override
+        public Boolean visit(RecordDesignPattern_09_VisitorPattern.Not not) {
+            counts.nodes++;
+            return super.visit(not);
+        }
+
+        @Override
+        public Boolean visit(RecordDesignPattern_09_VisitorPattern.Brackets brackets) {
+            counts.nodes++;
+            return super.visit(brackets);
+        }
+
+        @Override
+        public Boolean visit(RecordDesignPattern_09_VisitorPattern.And and) {
+            counts.nodes++;
+            counts.operators++;
+            if (!and.left().accept(this)) {
+                counts.shortCircuits++;
+                return false;
+            }
+            return and.right().accept(this);
+        }
+
+        @Override
+        public Boolean visit(RecordDesignPattern_09_VisitorPattern.Or or) {
+            counts.nodes++;
+            counts.operators++;
+            if (or.left().accept(this)) {
+                counts.shortCircuits++;
+                return true;
+            }
+            return or.right().accept(this);
+        }
+    }
+
+    private static List<ExpressionMetrics> ruleMetrics(Metrics metrics, String evaluator, int rules) {
+        List<ExpressionMetrics> ruleMetrics = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            ruleMetrics.add(metrics.of(evaluator, "rule" + i));
+        }
+        return ruleMetrics;
+    }
+
+    // every round runs plain and instrumented and alternates the order, the first rounds warm up
+    private static void printOverhead(String evaluator, ToIntFunction<Boolean> round) {
+        long plainNanos = 0, instrumentedNanos = 0;
+        int trueResults = 0;
+        for (int r = 0; r < 60; r++) {
+            for (int order = 0; order < 2; order++) {
+                boolean isInstrumented = (r + order) % 2 == 0;
+                long start = System.nanoTime();
+                trueResults += round.applyAsInt(isInstrumented);
+                long nanos = System.nanoTime() - start;
+                if (20 <= r && isInstrumented) {
+                    instrumentedNanos += nanos;
+                } else if (20 <= r) {
+                    plainNanos += nanos;
+                }
+            }
+        }
+        System.out.printf("%s: plain: %d ms, instrumented: %d ms, overhead: %.1f %%, true results: %d%n",
+                evaluator, plainNanos / 1_000_000, instrumentedNanos / 1_000_000,
+                100.0 * (instrumentedNanos - plainNanos) / plainNanos, trueResults);
+    }
+
+    private static RecordDesignPattern_09_VisitorPattern.Expression to09(Expression expression) {
+        return switch (expression) {
+            case Value value -> (value == TRUE)
+                    ? RecordDesignPattern_09_VisitorPattern.Value.TRUE
+                    : RecordDesignPattern_09_VisitorPattern.Value.FALSE;
+            case Variable variable -> new RecordDesignPattern_09_VisitorPattern.Variable(variable.name());
+            case Not(var unnegated) -> new RecordDesignPattern_09_VisitorPattern.Not(to09(unnegated));
+            case And(var left, var right) -> new RecordDesignPattern_09_VisitorPattern.And(to09(left), to09(right));
+            case Or(var left, var right) -> new RecordDesignPattern_09_VisitorPattern.Or(to09(left), to09(right));
+        };
+    }
+
+    private static RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> to10(Expression expression) {
+        return switch (expression) {
+            case Value value -> (value == TRUE) ? BoolValue.TRUE : BoolValue.FALSE;
+            case Variable variable -> new RecordDesignPattern_10_ListsAndGenerics.Variable<>(variable.name());
+            case Not(var unnegated) -> new RecordDesignPattern_10_ListsAndGenerics.Not<>(to10(unnegated));
+            case And(var left, var right) -> new RecordDesignPattern_10_ListsAndGenerics.And<>(to10(left), to10(right));
+            case Or(var left, var right) -> new RecordDesignPattern_10_ListsAndGenerics.Or<>(to10(left), to10(right));
+        };
+    }
+
+    /*
+    Output (the times vary):
+    # HELP expression_evaluations_total Number of evaluations.
+    # TYPE expression_evaluations_total counter
+    expression_evaluations_total{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 640
+    expression_evaluations_total{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 640
+    expression_evaluations_total{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 640
+    # HELP expression_sampled_evaluations_total Number of sampled evaluations.
+    # TYPE expression_sampled_evaluations_total counter
+    expression_sampled_evaluations_total{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 9
+    expression_sampled_evaluations_total{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 8
+    expression_sampled_evaluations_total{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 7
+    # HELP expression_nodes_visited_total Number of visited nodes in sampled evaluations.
+    # TYPE expression_nodes_visited_total counter
+    expression_nodes_visited_total{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 72
+    expression_nodes_visited_total{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 64
+    expression_nodes_visited_total{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 56
+    # HELP expression_operators_visited_total Number of visited And and Or nodes in sampled evaluations.
+    # TYPE expression_operators_visited_total counter
+    expression_operators_visited_total{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 36
+    expression_operators_visited_total{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 32
+    expression_operators_visited_total{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 28
+    # HELP expression_short_circuits_total Number of And and Or nodes which skipped operands in sampled evaluations.
+    # TYPE expression_short_circuits_total counter
+    expression_short_circuits_total{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 18
+    expression_short_circuits_total{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 16
+    expression_short_circuits_total{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 14
+    # HELP expression_evaluation_seconds Latency of sampled evaluations.
+    # TYPE expression_evaluation_seconds histogram
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="1.5E-8"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="6.3E-8"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="2.55E-7"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="1.023E-6"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="4.095E-6"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="1.6383E-5"} 1
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="6.5535E-5"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="2.62143E-4"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="0.001048575"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="0.004194303"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="0.016777215"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="0.067108863"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="0.268435455"} 9
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="1.073741823"} 9
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="4.294967295"} 9
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="17.179869183"} 9
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_08_Evaluate",expression="example",le="+Inf"} 9
+    expression_evaluation_seconds_sum{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 0.070598921
+    expression_evaluation_seconds_count{evaluator="RecordDesignPattern_08_Evaluate",expression="example"} 9
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="1.5E-8"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="6.3E-8"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="2.55E-7"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="1.023E-6"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="4.095E-6"} 1
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="1.6383E-5"} 6
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="6.5535E-5"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="2.62143E-4"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="0.001048575"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="0.004194303"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="0.016777215"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="0.067108863"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="0.268435455"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="1.073741823"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="4.294967295"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="17.179869183"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example",le="+Inf"} 8
+    expression_evaluation_seconds_sum{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 1.10343E-4
+    expression_evaluation_seconds_count{evaluator="RecordDesignPattern_09_VisitorPattern",expression="example"} 8
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="1.5E-8"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="6.3E-8"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="2.55E-7"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="1.023E-6"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="4.095E-6"} 0
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="1.6383E-5"} 1
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="6.5535E-5"} 6
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="2.62143E-4"} 6
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="0.001048575"} 6
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="0.004194303"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="0.016777215"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="0.067108863"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="0.268435455"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="1.073741823"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="4.294967295"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="17.179869183"} 7
+    expression_evaluation_seconds_bucket{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example",le="+Inf"} 7
+    expression_evaluation_seconds_sum{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 0.002211993
+    expression_evaluation_seconds_count{evaluator="RecordDesignPattern_10_ListsAndGenerics",expression="example"} 7
+    short-circuit rate of RecordDesignPattern_08_Evaluate: 0.5
+    RecordDesignPattern_08_Evaluate: plain: 756 ms, instrumented: 823 ms, overhead: 8.9 %, true results: 6296520
+    RecordDesignPattern_09_VisitorPattern: plain: 873 ms, instrumented: 923 ms, overhead: 5.8 %, true results: 6296520
+    RecordDesignPattern_10_ListsAndGenerics: plain: 914 ms, instrumented: 969 ms, overhead: 6.0 %, true results: 6296520
+    snapshot: 8705396 bytes
+     */
+    public static void main(String[] args) throws IOException {
+        Metrics metrics = new Metrics();
+        Variable B = new Variable("B");
+        Variable C = new Variable("C");
+        Variable D = new Variable("D");
+        // "(FALSE && !B || !(C && D)) && TRUE"
+        Expression expression = new And(new Or(new And(FALSE, new Not(B)), new Not(new And(C, D))), TRUE);
+        ExpressionMetrics metrics08 = metrics.of("RecordDesignPattern_08_Evaluate", "example");
+        Map<Variable, Value> values08 = Map.of(B, TRUE, C, FALSE, D, TRUE);
+
+        RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue> B10 =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("B");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue> C10 =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("C");
+        RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue> D10 =
+                new RecordDesignPattern_10_ListsAndGenerics.Variable<>("D");
+        RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue> expression10 =
+                new RecordDesignPattern_10_ListsAndGenerics.And<>(new RecordDesignPattern_10_ListsAndGenerics.Or<>(
+                        new RecordDesignPattern_10_ListsAndGenerics.And<>(BoolValue.FALSE,
+                                new RecordDesignPattern_10_ListsAndGenerics.Not<>(B10)),
+                        new RecordDesignPattern_10_ListsAndGenerics.Not<>(
+                                new RecordDesignPattern_10_ListsAndGenerics.And<>(C10, D10))), BoolValue.TRUE);
+        ExpressionMetrics metrics10 = metrics.of("RecordDesignPattern_10_ListsAndGenerics", "example");
+        Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> values10 =
+                Map.of(B10, BoolValue.TRUE, C10, BoolValue.FALSE, D10, BoolValue.TRUE);
+
+        RecordDesignPattern_09_VisitorPattern.Variable B09 = new RecordDesignPattern_09_VisitorPattern.Variable("B");
+        RecordDesignPattern_09_VisitorPattern.Variable C09 = new RecordDesignPattern_09_VisitorPattern.Variable("C");
+        RecordDesignPattern_09_VisitorPattern.Variable D09 = new RecordDesignPattern_09_VisitorPattern.Variable("D");
+        RecordDesignPattern_09_VisitorPattern.Expression expression09 = new RecordDesignPattern_09_VisitorPattern.And(
+                new RecordDesignPattern_09_VisitorPattern.Or(
+                        new RecordDesignPattern_09_VisitorPattern.And(RecordDesignPattern_09_VisitorPattern.Value.FALSE,
+                                new RecordDesignPattern_09_VisitorPattern.Not(B09)),
+                        new RecordDesignPattern_09_VisitorPattern.Not(
+                                new RecordDesignPattern_09_VisitorPattern.And(C09, D09))),
+                RecordDesignPattern_09_VisitorPattern.Value.TRUE);
+        ExpressionMetrics metrics09 = metrics.of("RecordDesignPattern_09_VisitorPattern", "example");
+        CountingEvaluator evaluator09 = new CountingEvaluator(Map.of(B09, RecordDesignPattern_09_VisitorPattern.Value.TRUE,
+                        C09, RecordDesignPattern_09_VisitorPattern.Value.FALSE,
+                        D09, RecordDesignPattern_09_VisitorPattern.Value.TRUE));
+
+        for (int i = 0; i < 640; i++) { // about 10 calls are sampled
+            evaluate(metrics08, expression, values08);
+            evaluate(metrics10, expression10, values10);
+            evaluator09.evaluate(metrics09, expression09);
+        }
+        metrics.writeTo(System.out);
+        System.out.println("short-circuit rate of RecordDesignPattern_08_Evaluate: " + metrics08.shortCircuitRate());
+
+        // the overhead on rules of realistic size for every evaluator
+        List<Variable> variables = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            variables.add(new Variable("V" + i));
+        }
+        Random random = new Random(42);
+        List<Expression> rules = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rules.add(RecordDesignPattern_11_Compiler.randomExpression(random, variables, 8));
+        }
+        List<Map<Variable, Value>> assignments = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Map<Variable, Value> values = new HashMap<>();
+            variables.forEach(variable -> values.put(variable, random.nextBoolean() ? TRUE : FALSE));
+            assignments.add(values);
+        }
+
+        List<ExpressionMetrics> ruleMetrics08 = ruleMetrics(metrics, "RecordDesignPattern_08_Evaluate", rules.size());
+        printOverhead("RecordDesignPattern_08_Evaluate", isInstrumented -> {
+            int trueResults = 0;
+            for (Map<Variable, Value> values : assignments) {
+                for (int i = 0; i < rules.size(); i++) {
+                    trueResults += evaluate(isInstrumented ? ruleMetrics08.get(i) : null, rules.get(i), values)
+                            ? 1 : 0;
+                }
+            }
+            return trueResults;
+        });
+
+        List<RecordDesignPattern_09_VisitorPattern.Expression> rules09 =
+                rules.stream().map(RecordDesignPattern_33_EvaluationMetrics::to09).toList();
+        List<CountingEvaluator> evaluators09 = assignments.stream().map(values -> {
+            Map<RecordDesignPattern_09_VisitorPattern.Variable, RecordDesignPattern_09_VisitorPattern.Value>
+                    values09 = new HashMap<>();
+            values.forEach((variable, value) -> values09.put(
+                    new RecordDesignPattern_09_VisitorPattern.Variable(variable.name()), (value == TRUE)
+                            ? RecordDesignPattern_09_VisitorPattern.Value.TRUE
+                            : RecordDesignPattern_09_VisitorPattern.Value.FALSE));
+            return new CountingEvaluator(values09);
+        }).toList();
+        List<ExpressionMetrics> ruleMetrics09 =
+                ruleMetrics(metrics, "RecordDesignPattern_09_VisitorPattern", rules.size());
+        printOverhead("RecordDesignPattern_09_VisitorPattern", isInstrumented -> {
+            int trueResults = 0;
+            for (CountingEvaluator evaluator : evaluators09) {
+                for (int i = 0; i < rules09.size(); i++) {
+                    trueResults += evaluator.evaluate(isInstrumented ? ruleMetrics09.get(i) : null, rules09.get(i))
+                            ? 1 : 0;
+                }
+            }
+            return trueResults;
+        });
+
+        List<RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> rules10 =
+                rules.stream().map(RecordDesignPattern_33_EvaluationMetrics::to10).toList();
+        List<Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>>> assignments10 =
+                assignments.stream().map(values -> {
+                    Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                            RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> assigned = new HashMap<>();
+                    values.forEach((variable, value) -> assigned.put(
+                            new RecordDesignPattern_10_ListsAndGenerics.Variable<>(variable.name()),
+                            (value == TRUE) ? BoolValue.TRUE : BoolValue.FALSE));
+                    return assigned;
+                }).toList();
+        List<ExpressionMetrics> ruleMetrics10 =
+                ruleMetrics(metrics, "RecordDesignPattern_10_ListsAndGenerics", rules.size());
+        printOverhead("RecordDesignPattern_10_ListsAndGenerics", isInstrumented -> {
+            int trueResults = 0;
+            for (Map<RecordDesignPattern_10_ListsAndGenerics.Variable<BoolValue>,
+                    RecordDesignPattern_10_ListsAndGenerics.Expression<BoolValue>> values : assignments10) {
+                for (int i = 0; i < rules10.size(); i++) {
+                    trueResults += (evaluate(isInstrumented ? ruleMetrics10.get(i) : null, rules10.get(i), values)
+                            == BoolValue.TRUE) ? 1 : 0;
+                }
+            }
+            return trueResults;
+        });
+
+        Path snapshot = Files.createTempFile("metrics", ".prom");
+        metrics.writeTo(snapshot);
+        System.out.println("snapshot: " + Files.size(snapshot) + " bytes");
+        Files.delete(snapshot);
+    }
+}
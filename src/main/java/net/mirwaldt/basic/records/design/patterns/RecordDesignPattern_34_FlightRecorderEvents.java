@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2023, Michael Mirwaldt. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * <img alt="Creative Commons License" style="border-width:0" src="https://i.creativecommons.org/l/by-nc-nd/4.0/88x31.png" />
+ * </a><br />This work is licensed under a <a rel="license" href="http://creativecommons.org/licenses/by-nc-nd/4.0/">
+ * Creative Commons Attribution-NonCommercial-NoDerivatives 4.0 International License</a>.
+ */
+
+package net.mirwaldt.basic.records.design.patterns;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.And;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.BoolValue;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Brackets;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Expression;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Not;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Or;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Value;
+import net.mirwaldt.basic.records.design.patterns.RecordDesignPattern_10_ListsAndGenerics.Variable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ * Custom events of the JDK Flight Recorder for withBrackets(), toString() and evaluate()
+ * of the records in RecordDesignPattern_10_ListsAndGenerics and the visitors in RecordDesignPattern_09_VisitorPattern
+ * so latency spikes in a recording can be matched with the expressions which caused them.
+ * Every event has a threshold of 1 ms by default so only slow calls are recorded.
+ * The size, the depth and the number of variables of an expression need a walk over the tree
+ * so they are only computed if the event is committed which means that the call was slow.
+ */
+@SuppressWarnings("ClassEscapesDefinedScope")
+public class RecordDesignPattern_34_FlightRecorderEvents {
+    static final String RECORDS = "records", VISITOR = "visitor";
+    static final int LARGE = 100_000;
+
+    @Category("Expressions")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    abstract static class ExpressionEvent extends Event {
+        @Label("Implementation")
+        String implementation;
+
+        @Label("Size")
+        @Description("Number of nodes")
+        int size;
+
+        @Label("Depth")
+        int depth;
+
+        @Label("Variables")
+        @Description("Number of distinct variables")
+        int variables;
+
+        void setShape(String implementation, Shape shape) {
+            this.implementation = implementation;
+            this.size = shape.size();
+            this.depth = shape.depth();
+            this.variables = shape.variables().size();
+        }
+    }
+
+    @Name("net.mirwaldt.expressions.WithBrackets")
+    @Label("With Brackets")
+    static final class WithBracketsEvent extends ExpressionEvent {
+        @Label("Result Size")
+        int resultSize;
+    }
+
+    @Name("net.mirwaldt.expressions.ToString")
+    @Label("To String")
+    static final class ToStringEvent extends ExpressionEvent {
+        @Label("Result Length")
+        int resultLength;
+    }
+
+    @Name("net.mirwaldt.expressions.Evaluate")
+    @Label("Evaluate")
+    static final class EvaluateEvent extends ExpressionEvent {
+        @Label("Result")
+        boolean result;
+    }
+
+    record Shape(int size, int depth, Set<String> variables) {
+
+    }
+
+    static <V extends Value<V>> Shape shapeOf(Expression<V> expression) {
+        Set<String> variables = new HashSet<>();
+        int[] sizeAndDepth = shapeOf(expression, variables);
+        return new Shape(sizeAndDepth[0], sizeAndDepth[1], variables);
+    }
+
+    private static <V extends Value<V>> int[] shapeOf(Expression<V> expression, Set<String> variables) {
+        return switch (expression) {
+            case Variable<V>(var name) -> {
+                variables.add(name);
+                yield new int[]{1, 1};
+            }
+            case Not<V>(var unnegated) -> parentOf(shapeOf(unnegated, variables));
+            case Brackets<V>(var withoutBrackets) -> parentOf(shapeOf(withoutBrackets, variables));
+            case And<V>(var first, var second, var tail) -> parentOf(first, second, tail, variables);
+            case Or<V>(var first, var second, var tail) -> parentOf(first, second, tail, variables);
+            case Value<V> value -> new int[]{1, 1};
+        };
+    }
+
+    private static <V extends Value<V>> int[] parentOf(Expression<V> first, Expression<V> second,
+                                                       List<Expression<V>> tail, Set<String> variables) {
+        int[] shape = parentOf(shapeOf(first, variables));
+        List<Expression<V>> operands = new ArrayList<>(tail.size() + 1);
+        operands.add(second);
+        operands.addAll(tail);
+        for (Expression<V> operand : operands) {
+            int[] operandShape = shapeOf(operand, variables);
+            shape[0] += operandShape[0];
+            shape[1] = Math.max(shape[1], 1 + operandShape[1]);
+        }
+        return shape;
+    }
+
+    private static int[] parentOf(int[] operandShape) {
+        return new int[]{1 + operandShape[0], 1 + operandShape[1]};
+    }
+
+    static Shape shapeOf(RecordDesignPattern_09_VisitorPattern.Expression expression) {
+        Set<String> variables = new HashSet<>();
+        int[] sizeAndDepth = shapeOf(expression, variables);
+        return new Shape(sizeAndDepth[0], sizeAndDepth[1], variables);
+    }
+
+    private static int[] shapeOf(RecordDesignPattern_09_VisitorPattern.Expression expression, Set<String> variables) {
+        return switch (expression) {
+            case RecordDesignPattern_09_VisitorPattern.Value value -> new int[]{1, 1};
+            case RecordDesignPattern_09_VisitorPattern.Variable(var name) -> {
+                variables.add(name);
+                yield new int[]{1, 1};
+            }
+            case RecordDesignPattern_09_VisitorPattern.Not(var unnegated) -> parentOf(shapeOf(unnegated, variables));
+            case RecordDesignPattern_09_VisitorPattern.Brackets(var withoutBrackets) ->
+                    parentOf(shapeOf(withoutBrackets, variables));
+            case RecordDesignPattern_09_VisitorPattern.And(var left, var right) ->
+                    parentOf(shapeOf(left, variables), shapeOf(right, variables));
+            case RecordDesignPattern_09_VisitorPattern.Or(var left, var right) ->
+                    parentOf(shapeOf(left, variables), shapeOf(right, variables));
+        };
+    }
+
+    private static int[] parentOf(int[] leftShape, int[] rightShape) {
+        return new int[]{1 + leftShape[0] + rightShape[0], 1 + Math.max(leftShape[1], rightShape[1])};
+    }
+
+    public static <V extends Value<V>> Expression<V> withBrackets(Expression<V> expression) {
+        WithBracketsEvent event = new WithBracketsEvent();
+        event.begin();
+        Expression<V> withBrackets = RecordDesignPattern_10_ListsAndGenerics.withBrackets(expression, null);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setShape(RECORDS, shapeOf(expression));
+            event.resultSize = shapeOf(withBrackets).size();
+            event.commit();
+        }
+        return withBrackets;
+    }
+
+    public static <V extends Value<V>> String toString(Expression<V> expression) {
+        ToStringEvent event = new ToStringEvent();
+        event.begin();
+        String string = RecordDesignPattern_10_ListsAndGenerics.toString(expression);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setShape(RECORDS, shapeOf(expression));
+            event.resultLength = string.length();
+            event.commit();
+        }
+        return string;
+    }
+
+    public static <V extends Value<V>> V evaluate(Expression<V> expression, Map<Variable<V>, Expression<V>> values) {
+        EvaluateEvent event = new EvaluateEvent();
+        event.begin();
+        V result = RecordDesignPattern_10_ListsAndGenerics.evaluate(expression, values);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setShape(RECORDS, shapeOf(expression));
+            event.result = result == result.getTrue();
+            event.commit();
+        }
+        return result;
+    }
+
+    public static RecordDesignPattern_09_VisitorPattern.Expression withBrackets(
+            RecordDesignPattern_09_VisitorPattern.Expression expression) {
+        WithBracketsEvent event = new WithBracketsEvent();
+        event.begin();
+        RecordDesignPattern_09_VisitorPattern.Expression withBrackets =
+                expression.accept(new RecordDesignPattern_09_VisitorPattern.Bracketeer());
+        event.end();
+        if (event.shouldCommit()) {
+            event.setShape(VISITOR, shapeOf(expression));
+            event.resultSize = shapeOf(withBrackets).size();
+            event.commit();
+        }
+        return withBrackets;
+    }
+
+    public static String toString(RecordDesignPattern_09_VisitorPattern.Expression expression) {
+        ToStringEvent event = new ToStringEvent();
+        event.begin();
+        String string = expression.accept(new RecordDesignPattern_09_VisitorPattern.Stringifier());
+        event.end();
+        if (event.shouldCommit()) {
+            event.setShape(VISITOR, shapeOf(expression));
+            event.resultLength = string.length();
+            event.commit();
+        }
+        return string;
+    }
+
+    public static boolean evaluate(RecordDesignPattern_09_VisitorPattern.Expression expression,
+                                   RecordDesignPattern_09_VisitorPattern.Evaluator evaluator) {
+        EvaluateEvent event = new EvaluateEvent();
+        event.begin();
+        boolean result = expression.accept(evaluator);
+        event.end();
+        if (event.shouldCommit()) {
+            event.setShape(VISITOR, shapeOf(expression));
+            event.result = result;
+            event.commit();
+        }
+        return result;
+    }
+
+    // a balanced conjunction of n variables which must be evaluated completely if all variables are true
+    private static RecordDesignPattern_09_VisitorPattern.Expression conjunction(
+            List<RecordDesignPattern_09_VisitorPattern.Variable> variables, int from, int to) {
+        if (to - from == 1) {
+            return variables.get(from % variables.size());
+        }
+        int middle = (from + to) >>> 1;
+        return new RecordDesignPattern_09_VisitorPattern.And(
+                conjunction(variables, from, middle), conjunction(variables, middle, to));
+    }
+
+    /*
+    Output (the times vary):
+    small expressions: 30000 calls, large expressions: 12 calls
+    net.mirwaldt.expressions.Evaluate: 5 small, 4 large
+    net.mirwaldt.expressions.ToString: 24 small, 4 large
+    net.mirwaldt.expressions.WithBrackets: 22 small, 4 large
+    all slower than 1 ms: true
+    net.mirwaldt.expressions.Evaluate of records: size=500005, depth=4, variables=20, result=true, duration=26 ms
+     */
+    public static void main(String[] args) throws IOException {
+        List<Variable<BoolValue>> variables = new ArrayList<>();
+        List<RecordDesignPattern_09_VisitorPattern.Variable> visitorVariables = new ArrayList<>();
+        Map<Variable<BoolValue>, Expression<BoolValue>> values = new HashMap<>();
+        Map<RecordDesignPattern_09_VisitorPattern.Variable, RecordDesignPattern_09_VisitorPattern.Value>
+                visitorValues = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            variables.add(new Variable<>("V" + i));
+            values.put(variables.get(i), BoolValue.TRUE);
+            visitorVariables.add(new RecordDesignPattern_09_VisitorPattern.Variable("V" + i));
+            visitorValues.put(visitorVariables.get(i), RecordDesignPattern_09_VisitorPattern.Value.TRUE);
+        }
+        RecordDesignPattern_09_VisitorPattern.Evaluator evaluator =
+                new RecordDesignPattern_09_VisitorPattern.Evaluator(visitorValues);
+
+        Random random = new Random(42);
+        List<Expression<BoolValue>> small = new ArrayList<>();
+        List<Expression<BoolValue>> large = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            small.add(RecordDesignPattern_23_Arena.randomExpression(random, variables, 3));
+        }
+        List<Expression<BoolValue>> tail = new ArrayList<>();
+        for (int i = 0; i < 500_000; i++) {
+            tail.add(variables.get(i % variables.size()));
+        }
+        for (int i = 0; i < 2; i++) { // all operands are true so the conjunction is evaluated completely
+            large.add(new And<>(variables.get(i), new Not<>(new Not<>(variables.get(i + 1))), tail));
+        }
+        List<RecordDesignPattern_09_VisitorPattern.Expression> smallVisitor = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            smallVisitor.add(conjunction(visitorVariables, 0, 1 + random.nextInt(10)));
+        }
+        List<RecordDesignPattern_09_VisitorPattern.Expression> largeVisitor = List.of(
+                conjunction(visitorVariables, 0, 100_000), conjunction(visitorVariables, 0, 200_000));
+
+        Path file = Files.createTempFile("expressions", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(WithBracketsEvent.class); // with the default threshold of 1 ms
+            recording.enable(ToStringEvent.class);
+            recording.enable(EvaluateEvent.class);
+            recording.start();
+            int smallCalls = 0, largeCalls = 0;
+            for (Expression<BoolValue> expression : small) {
+                withBrackets(expression);
+                evaluate(expression, values);
+                toString(expression);
+                smallCalls += 3;
+            }
+            for (RecordDesignPattern_09_VisitorPattern.Expression expression : smallVisitor) {
+                withBrackets(expression);
+                evaluate(expression, evaluator);
+                toString(expression);
+                smallCalls += 3;
+            }
+            for (Expression<BoolValue> expression : large) {
+                withBrackets(expression);
+                evaluate(expression, values);
+                toString(expression);
+                largeCalls += 3;
+            }
+            for (RecordDesignPattern_09_VisitorPattern.Expression expression : largeVisitor) {
+                withBrackets(expression);
+                evaluate(expression, evaluator);
+                toString(expression);
+                largeCalls += 3;
+            }
+            recording.stop();
+            recording.dump(file);
+            System.out.println("small expressions: " + smallCalls + " calls, large expressions: " + largeCalls
+                    + " calls");
+        }
+
+        // small expressions are only recorded if a call was slow by accident, e.g. by JIT compilation or GC
+        Map<String, int[]> counts = new TreeMap<>();
+        boolean allSlow = true;
+        RecordedEvent largest = null;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            int[] smallAndLarge = counts.computeIfAbsent(event.getEventType().getName(), name -> new int[2]);
+            smallAndLarge[(event.getInt("size") < LARGE) ? 0 : 1]++;
+            allSlow &= Duration.ofMillis(1).compareTo(event.getDuration()) <= 0;
+            if (event.getEventType().getName().endsWith("Evaluate")
+                    && (largest == null || largest.getInt("size") < event.getInt("size"))) {
+                largest = event;
+            }
+        }
+        counts.forEach((name, smallAndLarge) -> System.out.println(
+                name + ": " + smallAndLarge[0] + " small, " + smallAndLarge[1] + " large"));
+        System.out.println("all slower than 1 ms: " + allSlow);
+        if (largest != null) {
+            System.out.println(largest.getEventType().getName() + " of " + largest.getString("implementation")
+                    + ": size=" + largest.getInt("size") + ", depth=" + largest.getInt("depth")
+                    + ", variables=" + largest.getInt("variables") + ", result=" + largest.getBoolean("result")
+                    + ", duration=" + largest.getDuration().toMillis() + " ms");
+        }
+        Files.delete(file);
+    }
+}